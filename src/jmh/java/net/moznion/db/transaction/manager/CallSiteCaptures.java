@@ -0,0 +1,23 @@
+package net.moznion.db.transaction.manager;
+
+/**
+ * Resolves {@link CallSiteCapture} from the name which is specified as a parameter of benchmarks.
+ *
+ * @author moznion
+ */
+class CallSiteCaptures {
+    static final int SAMPLING_RATE = 100;
+
+    static CallSiteCapture of(String name) {
+        switch (name) {
+            case "off":
+                return CallSiteCapture.off();
+            case "sampled":
+                return CallSiteCapture.sampled(SAMPLING_RATE);
+            case "full":
+                return CallSiteCapture.full();
+            default:
+                throw new IllegalArgumentException("Unknown call site capture: " + name);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.moznion.db.transaction.manager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for registering and running end hooks.
+ *
+ * @author moznion
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EndHooksBenchmark {
+    @Param({"0", "1", "8", "64"})
+    public int endHooks;
+
+    @Param({"off", "full"})
+    public String callSiteCapture;
+
+    @Param({"sync", "async"})
+    public String dispatch;
+
+    private TransactionManager txnManager;
+    private Runnable endHook;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        txnManager = new TransactionManager(new StubConnection());
+        txnManager.setCallSiteCapture(CallSiteCaptures.of(callSiteCapture));
+        txnManager.setOneShotEndHooksEnabled(true); // hooks are registered per transaction
+        if ("async".equals(dispatch)) {
+            // run hooks on the caller to measure only the overhead of dispatching
+            txnManager.setEndHookDispatcher(
+                    new EndHookDispatcher(Runnable::run, 1024, EndHookDispatcher.OverflowPolicy.CALLER_RUNS));
+        }
+        endHook = () -> blackhole.consume(this);
+    }
+
+    @Benchmark
+    public TransactionManager commitWithEndHooks() throws SQLException {
+        txnManager.txnBegin();
+        for (int i = 0; i < endHooks; i++) {
+            txnManager.txnAddEndHook(endHook);
+        }
+        txnManager.txnCommit();
+        return txnManager;
+    }
+
+    @Benchmark
+    public TransactionManager rollbackWithEndHooks() throws SQLException {
+        txnManager.txnBegin();
+        for (int i = 0; i < endHooks; i++) {
+            txnManager.txnAddEndHook(endHook);
+        }
+        txnManager.txnRollback();
+        return txnManager;
+    }
+}
@@ -0,0 +1,68 @@
+package net.moznion.db.transaction.manager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for capturing call site.
+ *
+ * @author moznion
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StackTracerBenchmark {
+    @Param({"off", "sampled", "full"})
+    public String callSiteCapture;
+
+    private CallSiteCapture capture;
+    private Method formerGetStackTraceElement;
+
+    @Setup
+    public void setup() {
+        capture = CallSiteCaptures.of(callSiteCapture);
+        try {
+            formerGetStackTraceElement = Throwable.class.getDeclaredMethod("getStackTraceElement", int.class);
+            formerGetStackTraceElement.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            formerGetStackTraceElement = null; // Java 9 or later
+        }
+    }
+
+    @Benchmark
+    public StackTraceElement capture() {
+        return capture.capture();
+    }
+
+    @Benchmark
+    public StackTraceElement getCallerStackTraceElement() {
+        return StackTracer.getCallerStackTraceElement();
+    }
+
+    /**
+     * The reflective call of {@code Throwable#getStackTraceElement(int)} which the former implementation did,
+     * to compare with {@link #getCallerStackTraceElement()} on Java 8. This returns {@code null} on Java 9 or later.
+     */
+    @Benchmark
+    public StackTraceElement formerGetStackTraceElement() throws ReflectiveOperationException {
+        if (formerGetStackTraceElement == null) {
+            return null;
+        }
+        return (StackTraceElement) formerGetStackTraceElement.invoke(new Throwable(), 1);
+    }
+}
@@ -0,0 +1,68 @@
+package net.moznion.db.transaction.manager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for allocation of the bookkeeping of transactions.
+ * <p>
+ * Check {@code gc.alloc.rate.norm} (bytes per operation) of GC profiler. Without call site capture, begin and
+ * end of transactions don't allocate; trace information is created only when it is inspected.
+ *
+ * @author moznion
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransactionBookkeepingBenchmark {
+    @Param({"1", "4"})
+    public int depth;
+
+    private TransactionManager txnManager;
+
+    @Setup
+    public void setup() {
+        txnManager = new TransactionManager(new StubConnection());
+        txnManager.setCallSiteCapture(CallSiteCapture.off());
+        txnManager.setConnectionStateCacheEnabled(true);
+    }
+
+    @Benchmark
+    public TransactionManager beginAndCommit() throws SQLException {
+        for (int i = 0; i < depth; i++) {
+            txnManager.txnBegin();
+        }
+        for (int i = 0; i < depth; i++) {
+            txnManager.txnCommit();
+        }
+        return txnManager;
+    }
+
+    @Benchmark
+    public Optional<TransactionTraceInfo> beginInspectAndCommit() throws SQLException {
+        for (int i = 0; i < depth; i++) {
+            txnManager.txnBegin();
+        }
+        Optional<TransactionTraceInfo> current = txnManager.getCurrentTransaction();
+        for (int i = 0; i < depth; i++) {
+            txnManager.txnCommit();
+        }
+        return current;
+    }
+}
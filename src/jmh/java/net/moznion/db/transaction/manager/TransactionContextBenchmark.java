@@ -0,0 +1,68 @@
+package net.moznion.db.transaction.manager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Benchmark for scalability of transactions on many threads.
+ * <p>
+ * Run with different number of threads (e.g. {@code -t 1}, {@code -t 4}, {@code -t 16}) to compare
+ * the thread-confined context with a manager which is shared by a lock.
+ *
+ * @author moznion
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransactionContextBenchmark {
+    private TransactionContext context;
+    private TransactionManager sharedManager;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @Setup
+    public void setup() {
+        context = new TransactionContext(StubConnection::new,
+                manager -> manager.setCallSiteCapture(CallSiteCapture.off()));
+        sharedManager = new TransactionManager(new StubConnection());
+        sharedManager.setCallSiteCapture(CallSiteCapture.off());
+    }
+
+    @Benchmark
+    public TransactionManager threadConfinedContext() throws SQLException {
+        TransactionManager manager = context.getManager();
+        manager.txnBegin();
+        manager.txnBegin();
+        manager.txnCommit();
+        manager.txnCommit();
+        return manager;
+    }
+
+    @Benchmark
+    public TransactionManager sharedManagerWithLock() throws SQLException {
+        lock.lock();
+        try {
+            sharedManager.txnBegin();
+            sharedManager.txnBegin();
+            sharedManager.txnCommit();
+            sharedManager.txnCommit();
+            return sharedManager;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package net.moznion.db.transaction.manager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for begin, commit and rollback of (nested) transactions.
+ *
+ * @author moznion
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransactionLifecycleBenchmark {
+    @Param({"1", "2", "4", "8", "16"})
+    public int depth;
+
+    @Param({"off", "sampled", "full"})
+    public String callSiteCapture;
+
+    private TransactionManager txnManager;
+    private SqlFunction<Object> nestedBody;
+    private int remaining;
+
+    @Setup
+    public void setup() {
+        txnManager = new TransactionManager(new StubConnection());
+        txnManager.setCallSiteCapture(CallSiteCaptures.of(callSiteCapture));
+        nestedBody = connection -> --remaining > 0 ? txnManager.inTransaction(nestedBody) : connection;
+    }
+
+    @Benchmark
+    public TransactionManager beginAndCommit() throws SQLException {
+        for (int i = 0; i < depth; i++) {
+            txnManager.txnBegin();
+        }
+        for (int i = 0; i < depth; i++) {
+            txnManager.txnCommit();
+        }
+        return txnManager;
+    }
+
+    @Benchmark
+    public TransactionManager beginAndRollback() throws SQLException {
+        for (int i = 0; i < depth; i++) {
+            txnManager.txnBegin();
+        }
+        for (int i = 0; i < depth; i++) {
+            txnManager.txnRollback();
+        }
+        return txnManager;
+    }
+
+    @Benchmark
+    public TransactionManager scopeAndCommit() throws SQLException {
+        openScopeAndCommit(depth);
+        return txnManager;
+    }
+
+    @Benchmark
+    public TransactionManager scopeAndImplicitRollback() throws SQLException {
+        openScopeAndLeave(depth);
+        return txnManager;
+    }
+
+    @Benchmark
+    public Object inTransaction() throws SQLException {
+        remaining = depth;
+        return txnManager.inTransaction(nestedBody);
+    }
+
+    private void openScopeAndCommit(int remaining) throws SQLException {
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            if (remaining > 1) {
+                openScopeAndCommit(remaining - 1);
+            }
+            txn.commit();
+        }
+    }
+
+    private void openScopeAndLeave(int remaining) throws SQLException {
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            if (remaining > 1) {
+                openScopeAndLeave(remaining - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.Getter;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A named collector of keys which are handled in a batch after the outermost transaction is committed.
+ * <p>
+ * Keys are added by {@link TransactionManager#txnAddBatchHook(BatchHook, Object)} during a transaction.
+ * When the outermost transaction is committed, the handler runs once per hook with the deduplicated keys
+ * (in the order in which each key was added first), e.g. to invalidate cache entries or publish change events
+ * by one call instead of a call per row. If the transaction is rollbacked, the keys are discarded.
+ * <p>
+ * A hook is identified by its instance, so it is usually held as a constant and shared among managers.
+ *
+ * @param <K> the type of keys
+ * @author moznion
+ */
+@Getter
+public class BatchHook<K> {
+    /**
+     * The name of this hook, for logs.
+     */
+    private final String name;
+
+    /**
+     * The handler which receives the deduplicated keys of a transaction.
+     */
+    private final Consumer<? super Set<K>> handler;
+
+    /**
+     * Constructs a batch hook.
+     *
+     * @param name    the name of this hook
+     * @param handler the handler which receives the deduplicated keys of a transaction; it runs as an end hook
+     */
+    public BatchHook(String name, Consumer<? super Set<K>> handler) {
+        if (name == null) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler must not be null");
+        }
+
+        this.name = name;
+        this.handler = handler;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchHook(" + name + ")";
+    }
+}
@@ -0,0 +1,94 @@
+package net.moznion.db.transaction.manager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keys of {@link BatchHook}s which were added in the current transaction.
+ * <p>
+ * Keys are deduplicated per hook. Newly added keys are also logged in order, so keys which were added in
+ * a nested transaction can be discarded when it is rollbacked to its savepoint.
+ *
+ * @author moznion
+ */
+class BatchHookKeys {
+    private final Map<BatchHook<?>, Set<Object>> keys = new LinkedHashMap<>();
+    private final List<BatchHook<?>> addedHooks = new ArrayList<>();
+    private final List<Object> addedKeys = new ArrayList<>();
+
+    void add(BatchHook<?> hook, Object key) {
+        Set<Object> hookKeys = keys.get(hook);
+        if (hookKeys == null) {
+            hookKeys = new LinkedHashSet<>();
+            keys.put(hook, hookKeys);
+        }
+        if (hookKeys.add(key)) {
+            addedHooks.add(hook);
+            addedKeys.add(key);
+        }
+    }
+
+    /**
+     * The number of distinct keys, which is used as the mark of a nested transaction.
+     */
+    int size() {
+        return addedKeys.size();
+    }
+
+    boolean isEmpty() {
+        return addedKeys.isEmpty();
+    }
+
+    /**
+     * Discards keys which were added after the mark.
+     */
+    void truncate(int mark) {
+        for (int i = addedKeys.size() - 1; i >= mark; i--) {
+            keys.get(addedHooks.get(i)).remove(addedKeys.get(i));
+        }
+        addedHooks.subList(mark, addedHooks.size()).clear();
+        addedKeys.subList(mark, addedKeys.size()).clear();
+    }
+
+    void clear() {
+        if (isEmpty()) {
+            return;
+        }
+        keys.clear();
+        addedHooks.clear();
+        addedKeys.clear();
+    }
+
+    /**
+     * Takes a hook per {@link BatchHook} which has keys, and clears keys.
+     *
+     * @return hooks in the order in which each {@link BatchHook} was used first.
+     */
+    List<Runnable> drain() {
+        if (isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Runnable> hooks = new ArrayList<>(keys.size());
+        for (Map.Entry<BatchHook<?>, Set<Object>> entry : keys.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                hooks.add(toRunnable(entry.getKey(), Collections.unmodifiableSet(entry.getValue())));
+            }
+        }
+        keys.clear();
+        addedHooks.clear();
+        addedKeys.clear();
+        return hooks;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> Runnable toRunnable(BatchHook<K> hook, Set<?> hookKeys) {
+        Set<K> typedKeys = (Set<K>) hookKeys;
+        return () -> hook.getHandler().accept(typedKeys);
+    }
+}
@@ -0,0 +1,63 @@
+package net.moznion.db.transaction.manager;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The strategy to capture the call site which begins a transaction.
+ * <p>
+ * Captured call site is used to fill {@link TransactionTraceInfo}. If a call site is not captured,
+ * the fields of {@link TransactionTraceInfo} which are related to call site will be "Unknown" or {@code -1}.
+ *
+ * @author moznion
+ */
+@FunctionalInterface
+public interface CallSiteCapture {
+    /**
+     * Captures the call site of transaction manager.
+     *
+     * @return the frame of caller, or {@code null} if call site is not captured.
+     */
+    StackTraceElement capture();
+
+    /**
+     * Returns the strategy which never captures the call site.
+     *
+     * @return the strategy which never captures.
+     */
+    static CallSiteCapture off() {
+        return () -> null;
+    }
+
+    /**
+     * Returns the strategy which captures the call site on every begin.
+     * <p>
+     * This strategy reads only the frames which are needed to find the caller.
+     *
+     * @return the strategy which always captures.
+     */
+    static CallSiteCapture full() {
+        return StackTracer::getCallerStackTraceElement;
+    }
+
+    /**
+     * Returns the strategy which captures the call site on 1-in-{@code n} begins at random.
+     *
+     * @param n sampling rate; when {@code n} is {@code 1}, it is the same as {@link #full()}
+     * @return the strategy which captures by sampling.
+     */
+    static CallSiteCapture sampled(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("sampling rate must be positive");
+        }
+        if (n == 1) {
+            return full();
+        }
+
+        return () -> {
+            if (ThreadLocalRandom.current().nextInt(n) != 0) {
+                return null;
+            }
+            return StackTracer.getCallerStackTraceElement();
+        };
+    }
+}
@@ -0,0 +1,68 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable snapshot of transactions of a call site, which is recorded by {@link CallSiteProfiler}.
+ *
+ * @author moznion
+ */
+@Getter
+public class CallSiteProfile {
+    /**
+     * The call site which began transactions, or {@code null} for transactions whose call site was not captured
+     * (or which exceeded the maximum number of call sites).
+     */
+    private final StackTraceElement callSite;
+
+    /**
+     * The number of transactions which were began at the call site, including nested ones.
+     */
+    private final long begins;
+
+    /**
+     * The number of committed outermost transactions.
+     */
+    private final long commits;
+
+    /**
+     * The number of rollbacked outermost transactions, including the ones which failed to commit.
+     */
+    private final long rollbacks;
+
+    /**
+     * The number of rollbacked nested transactions.
+     */
+    private final long nestedRollbacks;
+
+    /**
+     * The histogram of duration of outermost transactions, from begin to commit or rollback.
+     */
+    private final LatencyHistogram.Snapshot durationHistogram;
+
+    CallSiteProfile(StackTraceElement callSite, long begins, long commits, long rollbacks, long nestedRollbacks,
+                    LatencyHistogram.Snapshot durationHistogram) {
+        this.callSite = callSite;
+        this.begins = begins;
+        this.commits = commits;
+        this.rollbacks = rollbacks;
+        this.nestedRollbacks = nestedRollbacks;
+        this.durationHistogram = durationHistogram;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append(callSite == null ? TransactionTraceInfo.UNKNOWN_SYMBOL : callSite)
+                .append(": Begins: ").append(begins)
+                .append(", Commits: ").append(commits)
+                .append(", Rollbacks: ").append(rollbacks)
+                .append(", Nested Rollbacks: ").append(nestedRollbacks)
+                .append(", Total Duration (ms): ").append(durationHistogram.getTotal(TimeUnit.MILLISECONDS))
+                .append(", Duration p50/p99/max (us): ")
+                .append(durationHistogram.getPercentile(50, TimeUnit.MICROSECONDS)).append('/')
+                .append(durationHistogram.getPercentile(99, TimeUnit.MICROSECONDS)).append('/')
+                .append(durationHistogram.getMax(TimeUnit.MICROSECONDS)).toString();
+    }
+}
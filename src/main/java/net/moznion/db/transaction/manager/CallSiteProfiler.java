@@ -0,0 +1,274 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * The {@link TransactionListener} which aggregates transactions by the call site which began them.
+ * <p>
+ * For each call site, it records the number of begins (including nested transactions), commits, rollbacks and
+ * nested rollbacks, and the histogram of duration of outermost transactions. Commits, rollbacks and durations
+ * are recorded on the call site of the outermost transaction. Counters are striped and recording is lock-free
+ * once the call site is known, so one profiler can be shared among transaction managers on many threads.
+ * <p>
+ * Call sites are captured by {@link CallSiteCapture} of each manager. The first captured call site is kept as
+ * the key, and the number of call sites is bounded by {@code maxCallSites}; transactions whose call site
+ * was not captured (or which exceeded the bound) are recorded on a call site of {@code null}.
+ * <p>
+ * Optionally, the top call sites are dumped periodically to a log (or any consumer such as a file writer).
+ *
+ * @author moznion
+ */
+@Slf4j
+public class CallSiteProfiler implements TransactionListener, AutoCloseable {
+    private static final Comparator<CallSiteProfile> BY_TOTAL_DURATION = Comparator.comparingLong(
+            (CallSiteProfile profile) -> profile.getDurationHistogram().getTotal(TimeUnit.NANOSECONDS)).reversed();
+
+    private final Map<StackTraceElement, Stats> sites = new ConcurrentHashMap<>();
+    private final Stats unknownSite = new Stats();
+    private final int maxCallSites;
+    private final int dumpTopN;
+    private final Consumer<String> dumper;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Builder of {@link CallSiteProfiler}.
+     */
+    @Accessors(fluent = true)
+    @Setter
+    public static class Builder {
+        /**
+         * The maximum number of call sites to distinguish. Default value is {@code 1024}.
+         */
+        private int maxCallSites = 1024;
+
+        /**
+         * The interval of dumping the top call sites. {@code 0} (default) disables dumping.
+         */
+        private long dumpIntervalMillis = 0;
+
+        /**
+         * The number of call sites to dump, in descending order of total duration. Default value is {@code 10}.
+         */
+        private int dumpTopN = 10;
+
+        /**
+         * The receiver of dumped text. Default dumper logs it as info. It is called on the dumping thread.
+         */
+        private Consumer<String> dumper = text -> log.info(text);
+
+        /**
+         * Construct new instance of CallSiteProfiler, which starts dumping immediately if it is enabled.
+         *
+         * @return new instance of CallSiteProfiler
+         */
+        public CallSiteProfiler build() {
+            return new CallSiteProfiler(this);
+        }
+    }
+
+    /**
+     * Return new builder for this class.
+     *
+     * @return builder for this class.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Constructs a profiler with default settings, which doesn't dump.
+     */
+    public CallSiteProfiler() {
+        this(builder());
+    }
+
+    private CallSiteProfiler(Builder b) {
+        if (b.maxCallSites <= 0) {
+            throw new IllegalArgumentException("maxCallSites must be positive");
+        }
+        if (b.dumpIntervalMillis < 0) {
+            throw new IllegalArgumentException("dumpIntervalMillis must not be negative");
+        }
+        if (b.dumpTopN <= 0) {
+            throw new IllegalArgumentException("dumpTopN must be positive");
+        }
+        if (b.dumper == null) {
+            throw new IllegalArgumentException("dumper must not be null");
+        }
+
+        maxCallSites = b.maxCallSites;
+        dumpTopN = b.dumpTopN;
+        dumper = b.dumper;
+
+        if (b.dumpIntervalMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "call-site-profiler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::dump, b.dumpIntervalMillis, b.dumpIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public void onBegin(TransactionManager manager, int depth, StackTraceElement callSite) {
+        statsOf(callSite).begins.increment();
+    }
+
+    @Override
+    public void onCommit(TransactionManager manager, StackTraceElement callSite, long commitNanos,
+                         long durationNanos) {
+        Stats stats = statsOf(callSite);
+        stats.commits.increment();
+        stats.durationHistogram.record(durationNanos);
+    }
+
+    @Override
+    public void onRollback(TransactionManager manager, StackTraceElement callSite, long durationNanos) {
+        Stats stats = statsOf(callSite);
+        stats.rollbacks.increment();
+        stats.durationHistogram.record(durationNanos);
+    }
+
+    @Override
+    public void onNestedRollback(TransactionManager manager, StackTraceElement callSite, int depth) {
+        statsOf(callSite).nestedRollbacks.increment();
+    }
+
+    /**
+     * Takes snapshots of all of call sites.
+     * <p>
+     * Each value is read independently, so the snapshot is not atomic while transactions are running.
+     *
+     * @return snapshots of call sites, in no particular order.
+     */
+    public List<CallSiteProfile> snapshot() {
+        List<CallSiteProfile> profiles = new ArrayList<>(sites.size() + 1);
+        sites.forEach((callSite, stats) -> profiles.add(stats.snapshot(callSite)));
+        if (unknownSite.begins.sum() > 0) {
+            profiles.add(unknownSite.snapshot(null));
+        }
+        return profiles;
+    }
+
+    /**
+     * Takes snapshots of the top call sites in descending order of total duration of transactions.
+     *
+     * @param n the number of call sites
+     * @return snapshots of the top call sites.
+     */
+    public List<CallSiteProfile> top(int n) {
+        return top(n, BY_TOTAL_DURATION);
+    }
+
+    /**
+     * Takes snapshots of the top call sites in the order
+     * (e.g. {@code Comparator.comparingLong(CallSiteProfile::getRollbacks).reversed()}).
+     *
+     * @param n     the number of call sites
+     * @param order the order of call sites
+     * @return snapshots of the top call sites.
+     */
+    public List<CallSiteProfile> top(int n, Comparator<CallSiteProfile> order) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative");
+        }
+        if (order == null) {
+            throw new IllegalArgumentException("order must not be null");
+        }
+
+        List<CallSiteProfile> profiles = snapshot();
+        profiles.sort(order);
+        return profiles.size() > n ? new ArrayList<>(profiles.subList(0, n)) : profiles;
+    }
+
+    /**
+     * Dumps the top call sites to the dumper now.
+     */
+    public void dump() {
+        List<CallSiteProfile> profiles = top(dumpTopN);
+        if (profiles.isEmpty()) {
+            return;
+        }
+
+        StringBuilder text = new StringBuilder("Top call sites of transactions:");
+        for (CallSiteProfile profile : profiles) {
+            text.append(System.lineSeparator()).append("  ").append(profile);
+        }
+        try {
+            dumper.accept(text.toString());
+        } catch (RuntimeException e) {
+            log.warn("Dumper of call site profiler failed: " + e.toString());
+        }
+    }
+
+    /**
+     * Forgets all of recorded call sites.
+     */
+    public void reset() {
+        sites.clear();
+        unknownSite.reset();
+    }
+
+    /**
+     * Stops dumping.
+     */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private Stats statsOf(StackTraceElement callSite) {
+        if (callSite == null) {
+            return unknownSite;
+        }
+
+        Stats stats = sites.get(callSite);
+        if (stats != null) {
+            return stats;
+        }
+        if (sites.size() >= maxCallSites) {
+            return unknownSite;
+        }
+        return sites.computeIfAbsent(callSite, key -> new Stats());
+    }
+
+    private static class Stats {
+        private final LongAdder begins = new LongAdder();
+        private final LongAdder commits = new LongAdder();
+        private final LongAdder rollbacks = new LongAdder();
+        private final LongAdder nestedRollbacks = new LongAdder();
+        private volatile LatencyHistogram durationHistogram = new LatencyHistogram();
+
+        CallSiteProfile snapshot(StackTraceElement callSite) {
+            return new CallSiteProfile(callSite, begins.sum(), commits.sum(), rollbacks.sum(),
+                    nestedRollbacks.sum(), durationHistogram.snapshot());
+        }
+
+        void reset() {
+            begins.reset();
+            commits.reset();
+            rollbacks.reset();
+            nestedRollbacks.reset();
+            durationHistogram = new LatencyHistogram();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package net.moznion.db.transaction.manager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Records the progress of a chunked transaction, in the transaction of the chunk.
+ * See {@link ChunkedTransaction}.
+ *
+ * @author moznion
+ */
+@FunctionalInterface
+public interface ChunkCheckpointer {
+    /**
+     * Records the position which is reached by the chunk. This is called just before the chunk is committed,
+     * so the checkpoint is committed atomically with the chunk.
+     *
+     * @param connection the connection of the transaction of the chunk
+     * @param position   the number of operations which are committed including this chunk
+     *                   (and {@code startPosition} of options)
+     * @throws SQLException
+     */
+    void checkpoint(Connection connection, long position) throws SQLException;
+}
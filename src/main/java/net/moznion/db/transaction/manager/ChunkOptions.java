@@ -0,0 +1,93 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import java.util.function.Consumer;
+
+/**
+ * Represents the options of a chunked transaction. See {@link ChunkedTransaction}.
+ *
+ * @author moznion
+ */
+@Getter
+public class ChunkOptions {
+    private final long maxOperations;
+    private final long maxMillis;
+    private final long startPosition;
+    private final ChunkCheckpointer checkpointer;
+    private final Consumer<ChunkReport> reporter;
+
+    /**
+     * Builder of options of a chunked transaction.
+     * <p>
+     * This class provides fluent accessors for each fields. You can specify the
+     * field by method chaining.
+     */
+    @Accessors(fluent = true)
+    @Setter
+    public static class Builder {
+        /**
+         * The number of operations to commit a chunk. Default value is {@code 1000}.
+         */
+        private long maxOperations = 1000;
+
+        /**
+         * The time to commit a chunk, which is checked on each operation. {@code 0} (default) disables it.
+         */
+        private long maxMillis = 0;
+
+        /**
+         * The position to start from, e.g. the position which was checkpointed by a failed load.
+         * Default value is {@code 0}.
+         */
+        private long startPosition = 0;
+
+        /**
+         * The recorder of checkpoints, or {@code null} (default).
+         */
+        private ChunkCheckpointer checkpointer = null;
+
+        /**
+         * The receiver of reports of committed chunks, or {@code null} (default).
+         */
+        private Consumer<ChunkReport> reporter = null;
+
+        /**
+         * Construct new instance of ChunkOptions based on builder.
+         *
+         * @return new instance of ChunkOptions
+         */
+        public ChunkOptions build() {
+            return new ChunkOptions(this);
+        }
+    }
+
+    /**
+     * Return new builder for this instance.
+     *
+     * @return builder for this instance.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private ChunkOptions(Builder b) {
+        if (b.maxOperations <= 0) {
+            throw new IllegalArgumentException("maxOperations must be positive");
+        }
+        if (b.maxMillis < 0) {
+            throw new IllegalArgumentException("maxMillis must not be negative");
+        }
+        if (b.startPosition < 0) {
+            throw new IllegalArgumentException("startPosition must not be negative");
+        }
+
+        maxOperations = b.maxOperations;
+        maxMillis = b.maxMillis;
+        startPosition = b.startPosition;
+        checkpointer = b.checkpointer;
+        reporter = b.reporter;
+    }
+}
@@ -0,0 +1,62 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The report of a committed chunk of {@link ChunkedTransaction}.
+ *
+ * @author moznion
+ */
+@Getter
+public class ChunkReport {
+    /**
+     * The sequence number of the chunk, which starts with {@code 1}.
+     */
+    private final long chunk;
+
+    /**
+     * The number of operations in the chunk.
+     */
+    private final long operations;
+
+    /**
+     * The position which was checkpointed by the chunk.
+     */
+    private final long position;
+
+    /**
+     * Time from begin to commit of the chunk.
+     */
+    private final long elapsedNanos;
+
+    ChunkReport(long chunk, long operations, long position, long elapsedNanos) {
+        this.chunk = chunk;
+        this.operations = operations;
+        this.position = position;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Throughput of the chunk.
+     *
+     * @return operations per second.
+     */
+    public double getOperationsPerSecond() {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return operations * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("Chunk #").append(chunk).append(": ")
+                .append(operations).append(" operations in ")
+                .append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)).append(" ms")
+                .append(" (").append(Math.round(getOperationsPerSecond())).append(" ops/s)")
+                .append(", Position: ").append(position).toString();
+    }
+}
@@ -0,0 +1,181 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The handler of a chunked transaction for bulk loads, which commits automatically every N operations
+ * (or M milliseconds) and begins the next transaction.
+ * <p>
+ * Call {@link #advance()} after each operation (e.g. {@link TransactionManager#txnAddBatch(String, Object...)}).
+ * When a chunk reaches the limit, the checkpointer records the position in the transaction of the chunk,
+ * the chunk is committed and the next chunk begins. A failed load can resume from the last checkpoint by
+ * {@code startPosition} of {@link ChunkOptions}, since a checkpoint is committed atomically with its chunk.
+ * <p>
+ * A chunk is not committed while a nested transaction is active; the boundary is deferred until it is end.
+ * {@link #close()} rollbacks only the current chunk; previous chunks have been committed.
+ *
+ * @author moznion
+ */
+@Slf4j
+public class ChunkedTransaction implements AutoCloseable {
+    private final TransactionManager transactionManager;
+    private final long maxOperations;
+    private final long maxNanos;
+    private final ChunkCheckpointer checkpointer;
+    private final Consumer<ChunkReport> reporter;
+
+    /**
+     * The position which has been committed.
+     */
+    @Getter
+    private long position;
+
+    /**
+     * The number of committed chunks.
+     */
+    @Getter
+    private long chunks = 0;
+
+    /**
+     * The number of operations in the current chunk.
+     */
+    @Getter
+    private long pendingOperations = 0;
+
+    private long chunkBeganAt;
+    private boolean isActioned = false;
+
+    ChunkedTransaction(TransactionManager transactionManager, ChunkOptions options) throws SQLException {
+        if (transactionManager.getDepth() > 0) {
+            throw new IllegalStateException("Tried to begin a chunked transaction but a transaction is active");
+        }
+
+        this.transactionManager = transactionManager;
+        maxOperations = options.getMaxOperations();
+        maxNanos = TimeUnit.MILLISECONDS.toNanos(options.getMaxMillis());
+        checkpointer = options.getCheckpointer();
+        reporter = options.getReporter();
+        position = options.getStartPosition();
+
+        beginChunk();
+    }
+
+    /**
+     * Counts an operation, and commits the chunk if it reaches the limit.
+     *
+     * @throws SQLException if committing the chunk fails; the chunk is rollbacked and this transaction is end
+     */
+    public void advance() throws SQLException {
+        advance(1);
+    }
+
+    /**
+     * Counts operations, and commits the chunk if it reaches the limit.
+     *
+     * @param operations the number of operations
+     * @throws SQLException if committing the chunk fails; the chunk is rollbacked and this transaction is end
+     */
+    public void advance(long operations) throws SQLException {
+        if (isActioned) {
+            throw new IllegalStateException("Tried to advance but the chunked transaction is end");
+        }
+        if (operations < 0) {
+            throw new IllegalArgumentException("operations must not be negative");
+        }
+
+        pendingOperations += operations;
+        if (transactionManager.getDepth() != 1) {
+            return; // in a nested transaction
+        }
+        if (pendingOperations >= maxOperations || (maxNanos > 0 && System.nanoTime() - chunkBeganAt >= maxNanos)) {
+            commitChunk();
+            beginChunk();
+        }
+    }
+
+    /**
+     * Commits the current chunk and ends this transaction.
+     *
+     * @throws SQLException
+     */
+    public void commit() throws SQLException {
+        if (isActioned) {
+            return; // do not run twice
+        }
+        if (transactionManager.getDepth() > 1) {
+            throw new IllegalStateException("Tried to commit a chunk but a nested transaction is active");
+        }
+
+        commitChunk();
+        isActioned = true;
+    }
+
+    /**
+     * Rollbacks the current chunk (including nested transactions which are still active) and ends
+     * this transaction.
+     *
+     * @throws SQLException
+     */
+    public void rollback() throws SQLException {
+        if (isActioned) {
+            return; // do not run twice
+        }
+
+        isActioned = true;
+        while (transactionManager.getDepth() > 0) {
+            transactionManager.txnRollback();
+        }
+    }
+
+    /**
+     * Rollbacks the current chunk if this transaction has not been committed or rollbacked yet.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        rollback();
+    }
+
+    private void beginChunk() throws SQLException {
+        transactionManager.txnBegin();
+        chunkBeganAt = System.nanoTime();
+    }
+
+    private void commitChunk() throws SQLException {
+        long committingPosition = position + pendingOperations;
+        try {
+            if (checkpointer != null && pendingOperations > 0) {
+                checkpointer.checkpoint(transactionManager.getConnection(), committingPosition);
+            }
+            transactionManager.txnCommit();
+        } catch (SQLException | RuntimeException e) {
+            // a failed commit has already been rollbacked; otherwise the chunk is rollbacked by close()
+            if (transactionManager.getDepth() == 0) {
+                isActioned = true;
+            }
+            throw e;
+        }
+
+        long operations = pendingOperations;
+        position = committingPosition;
+        pendingOperations = 0;
+        if (operations == 0) {
+            return;
+        }
+
+        chunks++;
+        if (reporter != null) {
+            try {
+                reporter.accept(new ChunkReport(chunks, operations, position, System.nanoTime() - chunkBeganAt));
+            } catch (RuntimeException e) {
+                log.warn("Reporter of chunked transaction failed: " + e.toString());
+            }
+        }
+    }
+}
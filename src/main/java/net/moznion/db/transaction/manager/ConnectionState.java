@@ -0,0 +1,88 @@
+package net.moznion.db.transaction.manager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * The local view of the state of a connection; auto commit mode, read only mode and transaction isolation level.
+ * <p>
+ * Each getter asks the connection only when the state is unknown, and each setter calls the connection
+ * only when the state actually changes. Some JDBC drivers issue a round trip to the DB for each of them.
+ * <p>
+ * The state becomes unknown by {@link #invalidate()}. It must be called when the connection can be
+ * changed by others.
+ *
+ * @author moznion
+ */
+class ConnectionState {
+    private Connection connection;
+    private Boolean autoCommit;
+    private Boolean readOnly;
+    private Integer transactionIsolation;
+
+    ConnectionState(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Switches to another connection. The state becomes unknown.
+     */
+    void reset(Connection connection) {
+        this.connection = connection;
+        invalidate();
+    }
+
+    void invalidate() {
+        autoCommit = null;
+        readOnly = null;
+        transactionIsolation = null;
+    }
+
+    boolean getAutoCommit() throws SQLException {
+        if (autoCommit == null) {
+            autoCommit = connection.getAutoCommit();
+        }
+        return autoCommit;
+    }
+
+    void setAutoCommit(boolean autoCommit) throws SQLException {
+        if (this.autoCommit != null && this.autoCommit == autoCommit) {
+            return;
+        }
+        this.autoCommit = null; // unknown if failed
+        connection.setAutoCommit(autoCommit);
+        this.autoCommit = autoCommit;
+    }
+
+    boolean isReadOnly() throws SQLException {
+        if (readOnly == null) {
+            readOnly = connection.isReadOnly();
+        }
+        return readOnly;
+    }
+
+    void setReadOnly(boolean readOnly) throws SQLException {
+        if (this.readOnly != null && this.readOnly == readOnly) {
+            return;
+        }
+        this.readOnly = null; // unknown if failed
+        connection.setReadOnly(readOnly);
+        this.readOnly = readOnly;
+    }
+
+    int getTransactionIsolation() throws SQLException {
+        if (transactionIsolation == null) {
+            transactionIsolation = connection.getTransactionIsolation();
+        }
+        return transactionIsolation;
+    }
+
+    void setTransactionIsolation(int transactionIsolation) throws SQLException {
+        if (this.transactionIsolation != null && this.transactionIsolation == transactionIsolation) {
+            return;
+        }
+        this.transactionIsolation = null; // unknown if failed
+        connection.setTransactionIsolation(transactionIsolation);
+        this.transactionIsolation = transactionIsolation;
+    }
+}
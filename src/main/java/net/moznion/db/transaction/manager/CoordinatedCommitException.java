@@ -0,0 +1,37 @@
+package net.moznion.db.transaction.manager;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown to indicate that not all of shards of {@link TransactionCoordinator} were committed.
+ * <p>
+ * {@link #getResult()} tells which shards were committed, rollbacked or failed.
+ *
+ * @author moznion
+ */
+public class CoordinatedCommitException extends SQLException {
+    private static final long serialVersionUID = 1L;
+
+    private final transient TransactionCoordinator.Result result;
+
+    /**
+     * Constructs a {@code CoordinatedCommitException} with the specified detail message, result and cause.
+     *
+     * @param message the detail message.
+     * @param result  the result of commit.
+     * @param cause   the first error of shards.
+     */
+    public CoordinatedCommitException(String message, TransactionCoordinator.Result result, Throwable cause) {
+        super(message, cause);
+        this.result = result;
+    }
+
+    /**
+     * The result of commit.
+     *
+     * @return the result of commit.
+     */
+    public TransactionCoordinator.Result getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,150 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The dispatcher which runs end hooks (and rollback hooks) of transactions on an {@code Executor}.
+ * <p>
+ * Hooks of a transaction are submitted to the executor as one task and run in the order in which
+ * they were added. Each hook is isolated; even if a hook throws, subsequent hooks run and the exception is logged.
+ * <p>
+ * The number of pending tasks is bounded by capacity. When it is full (or the executor rejects a task),
+ * {@link OverflowPolicy} decides how to handle the hooks.
+ *
+ * @author moznion
+ */
+@Slf4j
+public class EndHookDispatcher {
+    /**
+     * The policy to handle hooks which cannot be submitted because the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Runs hooks on the thread which ends the transaction.
+         */
+        CALLER_RUNS,
+        /**
+         * Discards hooks.
+         */
+        DISCARD,
+    }
+
+    private final Executor executor;
+
+    @Getter
+    private final int capacity;
+
+    @Getter
+    private final OverflowPolicy overflowPolicy;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    /**
+     * Constructs a dispatcher of end hooks.
+     *
+     * @param executor       an executor to run hooks
+     * @param capacity       the maximum number of pending tasks
+     * @param overflowPolicy a policy to handle hooks when pending tasks reach capacity
+     */
+    public EndHookDispatcher(Executor executor, int capacity, OverflowPolicy overflowPolicy) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("overflowPolicy must not be null");
+        }
+
+        this.executor = executor;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * The number of tasks which are submitted but not finished yet.
+     *
+     * @return the number of pending tasks.
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * The number of hooks which threw an exception.
+     *
+     * @return the number of failed hooks.
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * The number of hooks which were discarded by {@link OverflowPolicy#DISCARD}.
+     *
+     * @return the number of discarded hooks.
+     */
+    public long getDiscardedCount() {
+        return discarded.sum();
+    }
+
+    void dispatch(List<Runnable> hooks) {
+        if (hooks.isEmpty()) {
+            return;
+        }
+
+        if (pending.incrementAndGet() > capacity) {
+            pending.decrementAndGet();
+            overflow(hooks);
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    runIsolated(hooks);
+                } finally {
+                    pending.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            overflow(hooks);
+        }
+    }
+
+    private void overflow(List<Runnable> hooks) {
+        switch (overflowPolicy) {
+            case CALLER_RUNS:
+                runIsolated(hooks);
+                break;
+            case DISCARD:
+                discarded.add(hooks.size());
+                log.warn("Discarded {} hook(s) because the queue is full", hooks.size());
+                break;
+            default:
+                throw new IllegalStateException("Unknown overflow policy: " + overflowPolicy);
+        }
+    }
+
+    void runIsolated(List<Runnable> hooks) {
+        for (Runnable hook : hooks) {
+            try {
+                hook.run();
+            } catch (Throwable e) {
+                failed.increment();
+                log.warn("Hook of transaction failed", e);
+            }
+        }
+    }
+}
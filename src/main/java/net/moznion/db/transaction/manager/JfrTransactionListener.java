@@ -0,0 +1,184 @@
+package net.moznion.db.transaction.manager;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link TransactionListener} which emits events of transactions to Java Flight Recorder.
+ * <p>
+ * It emits the following events, so transactions can be correlated with GC pauses, lock profiles and so on
+ * in one recording.
+ * <ul>
+ * <li>{@code net.moznion.db.transaction.Transaction}: the span from begin to end of the outermost transaction,
+ * with the call site and the maximum depth</li>
+ * <li>{@code net.moznion.db.transaction.Commit}: latency of {@code Connection#commit()}</li>
+ * <li>{@code net.moznion.db.transaction.NestedRollback}: rollback of a nested transaction</li>
+ * <li>{@code net.moznion.db.transaction.EndHooks}: time which running (or dispatching) hooks took</li>
+ * </ul>
+ * Events are created only while they are enabled in a recording, so the cost is a few checks when recording is
+ * off. This requires a JVM which has Flight Recorder (JDK 8u262 or later, or JDK 11 or later).
+ *
+ * @author moznion
+ */
+public class JfrTransactionListener implements TransactionListener {
+    private final Map<TransactionManager, TransactionEvent> spans = new ConcurrentHashMap<>();
+
+    @Override
+    public void onBegin(TransactionManager manager, int depth, StackTraceElement callSite) {
+        if (depth > 1) {
+            if (!spans.isEmpty()) {
+                TransactionEvent span = spans.get(manager);
+                if (span != null && depth > span.maxDepth) {
+                    span.maxDepth = depth;
+                }
+            }
+            return;
+        }
+
+        TransactionEvent span = new TransactionEvent();
+        if (!span.isEnabled()) {
+            return;
+        }
+        span.begin();
+        if (callSite != null) {
+            span.className = callSite.getClassName();
+            span.methodName = callSite.getMethodName();
+            span.lineNumber = callSite.getLineNumber();
+        }
+        span.maxDepth = depth;
+        spans.put(manager, span);
+    }
+
+    @Override
+    public void onCommit(TransactionManager manager, StackTraceElement callSite, long commitNanos,
+                         long durationNanos) {
+        CommitEvent event = new CommitEvent();
+        if (event.isEnabled()) {
+            event.latency = commitNanos;
+            event.commit();
+        }
+
+        endSpan(manager, true);
+    }
+
+    @Override
+    public void onRollback(TransactionManager manager, StackTraceElement callSite, long durationNanos) {
+        endSpan(manager, false);
+    }
+
+    @Override
+    public void onNestedRollback(TransactionManager manager, StackTraceElement callSite, int depth) {
+        NestedRollbackEvent event = new NestedRollbackEvent();
+        if (event.isEnabled()) {
+            if (callSite != null) {
+                event.className = callSite.getClassName();
+                event.methodName = callSite.getMethodName();
+                event.lineNumber = callSite.getLineNumber();
+            }
+            event.depth = depth;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void onEndHooks(TransactionManager manager, int count, long elapsedNanos) {
+        EndHooksEvent event = new EndHooksEvent();
+        if (event.isEnabled()) {
+            event.count = count;
+            event.elapsed = elapsedNanos;
+            event.commit();
+        }
+    }
+
+    private void endSpan(TransactionManager manager, boolean committed) {
+        if (spans.isEmpty()) {
+            return;
+        }
+
+        TransactionEvent span = spans.remove(manager);
+        if (span != null) {
+            span.committed = committed;
+            span.commit();
+        }
+    }
+
+    /**
+     * The number of transactions whose span is being recorded.
+     */
+    int getRecordingSpanCount() {
+        return spans.size();
+    }
+
+    @Name("net.moznion.db.transaction.Transaction")
+    @Label("Transaction")
+    @Description("The outermost transaction, from begin to commit or rollback")
+    @Category({"Database", "Transaction"})
+    @StackTrace(false)
+    static class TransactionEvent extends Event {
+        @Label("Class Name")
+        String className;
+
+        @Label("Method Name")
+        String methodName;
+
+        @Label("Line Number")
+        int lineNumber = TransactionTraceInfo.UNKNOWN_NUM;
+
+        @Label("Max Depth")
+        int maxDepth;
+
+        @Label("Committed")
+        boolean committed;
+    }
+
+    @Name("net.moznion.db.transaction.Commit")
+    @Label("Transaction Commit")
+    @Description("Commit of the outermost transaction")
+    @Category({"Database", "Transaction"})
+    @StackTrace(false)
+    static class CommitEvent extends Event {
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("net.moznion.db.transaction.NestedRollback")
+    @Label("Nested Transaction Rollback")
+    @Category({"Database", "Transaction"})
+    @StackTrace(false)
+    static class NestedRollbackEvent extends Event {
+        @Label("Class Name")
+        String className;
+
+        @Label("Method Name")
+        String methodName;
+
+        @Label("Line Number")
+        int lineNumber = TransactionTraceInfo.UNKNOWN_NUM;
+
+        @Label("Depth")
+        int depth;
+    }
+
+    @Name("net.moznion.db.transaction.EndHooks")
+    @Label("Transaction End Hooks")
+    @Description("Running (or dispatching) end hooks or rollback hooks")
+    @Category({"Database", "Transaction"})
+    @StackTrace(false)
+    static class EndHooksEvent extends Event {
+        @Label("Count")
+        int count;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+}
@@ -0,0 +1,185 @@
+package net.moznion.db.transaction.manager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The histogram of latencies with fixed buckets.
+ * <p>
+ * Each bucket covers a power-of-two range of nanoseconds; bucket {@code i} counts latencies in
+ * {@code [2^(i-1), 2^i)} nanoseconds (bucket {@code 0} counts {@code 0}). Recording a latency doesn't allocate
+ * and is lock-free, and the counters are striped to reduce contention among threads.
+ *
+ * @author moznion
+ */
+public class LatencyHistogram {
+    static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructs an empty histogram.
+     */
+    public LatencyHistogram() {
+        buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos latency in nanoseconds; negative value is treated as {@code 0}
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[bucketIndex(nanos)].increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Takes a snapshot of this histogram.
+     *
+     * @return a snapshot.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new Snapshot(counts, sum.sum(), max.get());
+    }
+
+    static int bucketIndex(long nanos) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * The upper bound (exclusive) of the bucket in nanoseconds.
+     */
+    static long bucketUpperBound(int index) {
+        if (index >= BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return 1L << index;
+    }
+
+    /**
+     * An immutable snapshot of {@link LatencyHistogram}.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * The number of recorded latencies.
+         *
+         * @return the number of recorded latencies.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * The sum of recorded latencies.
+         *
+         * @param unit time unit of returned value
+         * @return the sum.
+         */
+        public long getTotal(TimeUnit unit) {
+            return unit.convert(sum, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The mean of recorded latencies.
+         *
+         * @param unit time unit of returned value
+         * @return the mean, or {@code 0} if nothing is recorded.
+         */
+        public double getMean(TimeUnit unit) {
+            if (count == 0) {
+                return 0;
+            }
+            return (double) sum / count / unit.toNanos(1);
+        }
+
+        /**
+         * The maximum of recorded latencies.
+         *
+         * @param unit time unit of returned value
+         * @return the maximum.
+         */
+        public long getMax(TimeUnit unit) {
+            return unit.convert(max, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The estimated percentile of recorded latencies.
+         * <p>
+         * It returns the upper bound of the bucket which contains the percentile (but not more than the maximum),
+         * so it can be overestimated by up to twice.
+         *
+         * @param percentile percentile (between {@code 0.0} and {@code 100.0})
+         * @param unit       time unit of returned value
+         * @return the estimated percentile, or {@code 0} if nothing is recorded.
+         */
+        public long getPercentile(double percentile, TimeUnit unit) {
+            if (percentile < 0.0 || percentile > 100.0) {
+                throw new IllegalArgumentException("percentile must be between 0.0 and 100.0");
+            }
+            if (count == 0) {
+                return 0;
+            }
+
+            long threshold = (long) Math.ceil(count * percentile / 100.0);
+            long accumulated = 0;
+            for (int i = 0; i < counts.length; i++) {
+                accumulated += counts[i];
+                if (accumulated >= Math.max(threshold, 1)) {
+                    long upperBound = i == 0 ? 0 : bucketUpperBound(i) - 1;
+                    return unit.convert(Math.min(upperBound, max), TimeUnit.NANOSECONDS);
+                }
+            }
+            return unit.convert(max, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The count of the bucket.
+         *
+         * @param index index of the bucket; bucket {@code i} counts latencies in {@code [2^(i-1), 2^i)} nanoseconds
+         * @return the count of the bucket.
+         */
+        public long getBucketCount(int index) {
+            return counts[index];
+        }
+
+        /**
+         * The number of buckets.
+         *
+         * @return the number of buckets.
+         */
+        public int getBucketSize() {
+            return counts.length;
+        }
+    }
+}
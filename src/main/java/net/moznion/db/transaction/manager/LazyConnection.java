@@ -0,0 +1,84 @@
+package net.moznion.db.transaction.manager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The wrapper of a connection for lazy begin mode of {@link TransactionManager}.
+ * <p>
+ * While a transaction is active but it has not began on the connection, only the methods which create
+ * a statement ({@code createStatement}, {@code prepareStatement}, {@code prepareCall} and {@code nativeSQL})
+ * begin the transaction before they are delegated. Other methods are delegated to the connection without
+ * beginning the transaction, except {@code getAutoCommit()} which answers {@code false}.
+ * If no connection is borrowed from {@code DataSource} yet, {@code close()} and {@code isClosed()} are answered
+ * without borrowing one, and the other methods begin the transaction to borrow a connection.
+ *
+ * @author moznion
+ */
+class LazyConnection implements InvocationHandler {
+    private static final Set<String> BEGINNING_METHODS = new HashSet<>(Arrays.asList(
+            "createStatement", "prepareStatement", "prepareCall", "nativeSQL"));
+
+    private final TransactionManager transactionManager;
+
+    private LazyConnection(TransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    static Connection create(TransactionManager transactionManager) {
+        return (Connection) Proxy.newProxyInstance(LazyConnection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new LazyConnection(transactionManager));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "LazyConnection: " + transactionManager.getPhysicalConnection();
+            default:
+                break;
+        }
+
+        if (transactionManager.isBeginPending()) {
+            String name = method.getName();
+            if ("getAutoCommit".equals(name)) {
+                return false;
+            }
+            if (transactionManager.getPhysicalConnection() == null) {
+                // nothing is borrowed from DataSource yet
+                if ("close".equals(name)) {
+                    return null;
+                }
+                if ("isClosed".equals(name)) {
+                    return false;
+                }
+                transactionManager.materialize();
+            } else if (BEGINNING_METHODS.contains(name)) {
+                transactionManager.materialize();
+            }
+        }
+
+        Connection connection = transactionManager.getPhysicalConnection();
+        if (connection == null) {
+            throw new SQLException(
+                    "There is no active transaction; a connection is borrowed from DataSource only in a transaction");
+        }
+
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
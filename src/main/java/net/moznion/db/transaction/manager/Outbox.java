@@ -0,0 +1,107 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import java.sql.SQLException;
+import java.util.regex.Pattern;
+
+/**
+ * The transactional outbox, which writes events to the outbox table as a part of the current transaction.
+ * <p>
+ * Events are appended by write-behind statements ({@link TransactionManager#txnAddBatch(String, Object...)}),
+ * so events of a transaction are inserted by one JDBC batch just before commit, and they are discarded if the
+ * transaction is rollbacked. Committed events are published by {@link OutboxRelay}, so publishing doesn't add
+ * latency to commit and events are not lost even if the process crashes after commit.
+ * <p>
+ * The table must have the following columns (the type of {@code payload} may be any text type):
+ * <pre>{@code
+ * CREATE TABLE outbox (
+ *     id         BIGINT       NOT NULL AUTO_INCREMENT PRIMARY KEY,
+ *     topic      VARCHAR(255) NOT NULL,
+ *     payload    TEXT         NOT NULL,
+ *     created_at BIGINT       NOT NULL
+ * )
+ * }</pre>
+ *
+ * @author moznion
+ */
+@Getter
+public class Outbox {
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(?:\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+    /**
+     * The name of the outbox table.
+     */
+    private final String tableName;
+
+    @Getter(AccessLevel.NONE)
+    private final String insertSql;
+
+    /**
+     * Builder of {@link Outbox}.
+     */
+    @Accessors(fluent = true)
+    @Setter
+    public static class Builder {
+        /**
+         * The name of the outbox table. Default value is {@code outbox}.
+         */
+        private String tableName = "outbox";
+
+        /**
+         * Construct new instance of Outbox based on builder.
+         *
+         * @return new instance of Outbox
+         */
+        public Outbox build() {
+            return new Outbox(this);
+        }
+    }
+
+    /**
+     * Return new builder for this class.
+     *
+     * @return builder for this class.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private Outbox(Builder b) {
+        if (b.tableName == null || !TABLE_NAME.matcher(b.tableName).matches()) {
+            throw new IllegalArgumentException("tableName must be a plain identifier: " + b.tableName);
+        }
+
+        tableName = b.tableName;
+        insertSql = "INSERT INTO " + tableName + " (topic, payload, created_at) VALUES (?, ?, ?)";
+    }
+
+    /**
+     * Appends an event to the outbox in the current transaction of the manager.
+     * <p>
+     * The event is inserted when buffered statements of the manager are flushed (at the latest, just before
+     * the outermost transaction is committed).
+     *
+     * @param manager the manager of the transaction
+     * @param topic   the topic of the event
+     * @param payload the payload of the event
+     * @throws SQLException          if buffered statements are flushed and it fails
+     * @throws IllegalStateException if there is no active transaction
+     */
+    public void append(TransactionManager manager, String topic, String payload) throws SQLException {
+        if (manager == null) {
+            throw new IllegalArgumentException("manager must not be null");
+        }
+        if (topic == null) {
+            throw new IllegalArgumentException("topic must not be null");
+        }
+        if (payload == null) {
+            throw new IllegalArgumentException("payload must not be null");
+        }
+
+        manager.txnAddBatch(insertSql, topic, payload, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,43 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.Getter;
+
+/**
+ * An event which was read from the outbox table by {@link OutboxRelay}.
+ *
+ * @author moznion
+ */
+@Getter
+public class OutboxEvent {
+    /**
+     * The ID of the row.
+     */
+    private final long id;
+
+    /**
+     * The topic of the event.
+     */
+    private final String topic;
+
+    /**
+     * The payload of the event.
+     */
+    private final String payload;
+
+    /**
+     * The value of {@code System.currentTimeMillis()} when the event was appended.
+     */
+    private final long createdAt;
+
+    OutboxEvent(long id, String topic, String payload, long createdAt) {
+        this.id = id;
+        this.topic = topic;
+        this.payload = payload;
+        this.createdAt = createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxEvent(id=" + id + ", topic=" + topic + ", createdAt=" + createdAt + ")";
+    }
+}
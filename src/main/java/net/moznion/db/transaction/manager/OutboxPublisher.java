@@ -0,0 +1,20 @@
+package net.moznion.db.transaction.manager;
+
+import java.util.List;
+
+/**
+ * Publishes events which are relayed from the outbox table, e.g. to a message broker.
+ *
+ * @author moznion
+ */
+@FunctionalInterface
+public interface OutboxPublisher {
+    /**
+     * Publishes events. Events are deleted from the outbox table only when this returns normally; if this throws,
+     * they are published again later, so publishing must be idempotent on the consumer side.
+     *
+     * @param events events in the order of ID
+     * @throws Exception
+     */
+    void publish(List<OutboxEvent> events) throws Exception;
+}
@@ -0,0 +1,217 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+/**
+ * The relay which publishes committed events of {@link Outbox}.
+ * <p>
+ * A relay reads events from the outbox table in batches (in the order of ID) on its own connection, hands them
+ * to the {@link OutboxPublisher} and deletes them in bulk. Events are deleted only after they were published,
+ * so each event is published at least once. While a read batch is full, the next batch is read immediately;
+ * otherwise the relay waits for the poll interval.
+ * <p>
+ * Run one relay for each outbox table; concurrent relays would publish the same events.
+ *
+ * @author moznion
+ */
+@Slf4j
+public class OutboxRelay implements AutoCloseable {
+    private static final int DELETE_CHUNK_SIZE = 500;
+
+    private final Outbox outbox;
+    private final DataSource dataSource;
+    private final OutboxPublisher publisher;
+
+    @Getter
+    private final int batchSize;
+
+    private final String selectSql;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Builder of {@link OutboxRelay}.
+     */
+    @Accessors(fluent = true)
+    @Setter
+    public static class Builder {
+        /**
+         * The outbox to relay. Required.
+         */
+        private Outbox outbox;
+
+        /**
+         * The data source which has the outbox table. Required.
+         */
+        private DataSource dataSource;
+
+        /**
+         * The publisher of events. Required.
+         */
+        private OutboxPublisher publisher;
+
+        /**
+         * The maximum number of events to read at once. Default value is {@code 1000}.
+         */
+        private int batchSize = 1000;
+
+        /**
+         * The interval of polling the outbox table. {@code 0} disables the background thread,
+         * so events are relayed only by {@link OutboxRelay#relayOnce()}. Default value is {@code 1000}.
+         */
+        private long pollIntervalMillis = 1000;
+
+        /**
+         * Construct new instance of OutboxRelay, which starts polling immediately if it is enabled.
+         *
+         * @return new instance of OutboxRelay
+         */
+        public OutboxRelay build() {
+            return new OutboxRelay(this);
+        }
+    }
+
+    /**
+     * Return new builder for this class.
+     *
+     * @return builder for this class.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private OutboxRelay(Builder b) {
+        if (b.outbox == null) {
+            throw new IllegalArgumentException("outbox must not be null");
+        }
+        if (b.dataSource == null) {
+            throw new IllegalArgumentException("dataSource must not be null");
+        }
+        if (b.publisher == null) {
+            throw new IllegalArgumentException("publisher must not be null");
+        }
+        if (b.batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        if (b.pollIntervalMillis < 0) {
+            throw new IllegalArgumentException("pollIntervalMillis must not be negative");
+        }
+
+        outbox = b.outbox;
+        dataSource = b.dataSource;
+        publisher = b.publisher;
+        batchSize = b.batchSize;
+        selectSql = "SELECT id, topic, payload, created_at FROM " + outbox.getTableName() + " ORDER BY id";
+
+        if (b.pollIntervalMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "outbox-relay");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::poll, b.pollIntervalMillis, b.pollIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Relays a batch of events now.
+     *
+     * @return the number of relayed events.
+     * @throws SQLException if reading or deleting events fails
+     * @throws Exception    if the publisher fails; events are not deleted
+     */
+    public synchronized int relayOnce() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean originalAutoCommit = connection.getAutoCommit();
+            if (!originalAutoCommit) {
+                connection.setAutoCommit(true);
+            }
+            try {
+                List<OutboxEvent> events = read(connection);
+                if (events.isEmpty()) {
+                    return 0;
+                }
+                publisher.publish(events);
+                delete(connection, events);
+                return events.size();
+            } finally {
+                if (!originalAutoCommit) {
+                    connection.setAutoCommit(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops polling.
+     */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Relays events until the backlog is drained. This is called on the polling thread.
+     */
+    void poll() {
+        try {
+            while (relayOnce() == batchSize && !Thread.currentThread().isInterrupted()) {
+                // backlog remains
+            }
+        } catch (Exception e) {
+            log.warn("Failed to relay events of outbox (" + outbox.getTableName() + "): " + e.toString());
+        }
+    }
+
+    private List<OutboxEvent> read(Connection connection) throws SQLException {
+        List<OutboxEvent> events = new ArrayList<>();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(selectSql)) {
+            preparedStatement.setMaxRows(batchSize);
+            preparedStatement.setFetchSize(batchSize);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    events.add(new OutboxEvent(resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3),
+                            resultSet.getLong(4)));
+                }
+            }
+        }
+        return events;
+    }
+
+    private void delete(Connection connection, List<OutboxEvent> events) throws SQLException {
+        for (int from = 0; from < events.size(); from += DELETE_CHUNK_SIZE) {
+            List<OutboxEvent> chunk = events.subList(from, Math.min(from + DELETE_CHUNK_SIZE, events.size()));
+            StringBuilder sql = new StringBuilder("DELETE FROM ").append(outbox.getTableName()).append(" WHERE id IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(')');
+
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql.toString())) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    preparedStatement.setLong(i + 1, chunk.get(i).getId());
+                }
+                preparedStatement.executeUpdate();
+            }
+        }
+    }
+}
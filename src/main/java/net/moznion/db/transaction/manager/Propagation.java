@@ -0,0 +1,27 @@
+package net.moznion.db.transaction.manager;
+
+/**
+ * How {@link TransactionManager#inTransaction(Propagation, SqlFunction)} behaves when a transaction is
+ * already active.
+ *
+ * @author moznion
+ */
+public enum Propagation {
+    /**
+     * Joins the current transaction as a nested transaction; failure of the body makes the outer transaction
+     * fail. If there is no active transaction, a new one begins.
+     */
+    REQUIRED,
+
+    /**
+     * Begins an independent transaction on a separate connection, which is committed or rollbacked regardless
+     * of the current transaction. See {@link TransactionManager#setNewConnectionFactory(SqlCallable)}.
+     */
+    REQUIRES_NEW,
+
+    /**
+     * Begins a nested transaction with a savepoint; failure of the body rollbacks only to the savepoint.
+     * If there is no active transaction, a new one begins.
+     */
+    NESTED,
+}
@@ -0,0 +1,96 @@
+package net.moznion.db.transaction.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of queries which were read in the current transaction, keyed by SQL, parameters and mapper.
+ * <p>
+ * The cache is cleared as a whole when something is written, since it doesn't know which rows are affected.
+ *
+ * @author moznion
+ */
+class QueryCache {
+    private static final Object NULL = new Object();
+
+    private final Map<Key, Object> results = new HashMap<>();
+
+    /**
+     * The cached result, or {@code null} if it is not cached.
+     */
+    Object get(String sql, ResultSetMapper<?> mapper, Object[] parameters) {
+        if (results.isEmpty()) {
+            return null;
+        }
+        return results.get(new Key(sql, mapper, parameters));
+    }
+
+    void put(String sql, ResultSetMapper<?> mapper, Object[] parameters, Object result) {
+        results.put(new Key(sql, mapper, parameters.clone()), result == null ? NULL : result);
+    }
+
+    static Object unwrap(Object cached) {
+        return cached == NULL ? null : cached;
+    }
+
+    int size() {
+        return results.size();
+    }
+
+    void clear() {
+        if (!results.isEmpty()) {
+            results.clear();
+        }
+    }
+
+    /**
+     * Takes a hook which publishes cached results, and clears the cache.
+     */
+    Runnable drain(QueryCachePublisher publisher) {
+        List<Map.Entry<Key, Object>> entries = new ArrayList<>(results.entrySet());
+        results.clear();
+        return () -> {
+            for (Map.Entry<Key, Object> entry : entries) {
+                Key key = entry.getKey();
+                publisher.publish(key.sql, Collections.unmodifiableList(Arrays.asList(key.parameters)),
+                        unwrap(entry.getValue()));
+            }
+        };
+    }
+
+    private static final class Key {
+        private final String sql;
+        private final ResultSetMapper<?> mapper;
+        private final Object[] parameters;
+        private final int hash;
+
+        private Key(String sql, ResultSetMapper<?> mapper, Object[] parameters) {
+            this.sql = sql;
+            this.mapper = mapper;
+            this.parameters = parameters;
+            hash = (sql.hashCode() * 31 + System.identityHashCode(mapper)) * 31 + Arrays.deepHashCode(parameters);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && mapper == other.mapper && sql.equals(other.sql)
+                    && Arrays.deepEquals(parameters, other.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package net.moznion.db.transaction.manager;
+
+import java.util.List;
+
+/**
+ * Receives results of queries which are cached in a committed transaction, e.g. to put them into a shared cache.
+ * See {@link TransactionManager#setQueryCachePublisher(QueryCachePublisher)}.
+ *
+ * @author moznion
+ */
+@FunctionalInterface
+public interface QueryCachePublisher {
+    /**
+     * Publishes a result of a query.
+     *
+     * @param sql        SQL of the query
+     * @param parameters parameters of the query
+     * @param result     the mapped result, which may be {@code null}
+     */
+    void publish(String sql, List<Object> parameters, Object result);
+}
@@ -0,0 +1,22 @@
+package net.moznion.db.transaction.manager;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the whole of a result set to a value.
+ *
+ * @param <T> the type of the value
+ * @author moznion
+ */
+@FunctionalInterface
+public interface ResultSetMapper<T> {
+    /**
+     * Maps a result set to a value. The result set is closed after this returns.
+     *
+     * @param resultSet the result set of a query
+     * @return mapped value
+     * @throws SQLException
+     */
+    T map(ResultSet resultSet) throws SQLException;
+}
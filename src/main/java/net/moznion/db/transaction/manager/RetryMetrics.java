@@ -0,0 +1,121 @@
+package net.moznion.db.transaction.manager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of transactions which are executed with {@link RetryPolicy}.
+ * <p>
+ * This is thread safe, so it can be read from a monitoring thread while transactions are running.
+ *
+ * @author moznion
+ */
+public class RetryMetrics {
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+    private final LongAdder fatalFailures = new LongAdder();
+    private final LongAdder backoffNanos = new LongAdder();
+
+    /**
+     * The number of executions.
+     *
+     * @return the number of executions.
+     */
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    /**
+     * The number of attempts, including the first attempt of each execution.
+     *
+     * @return the number of attempts.
+     */
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    /**
+     * The number of retries.
+     *
+     * @return the number of retries.
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * The number of executions which succeeded after one or more retries.
+     *
+     * @return the number of recovered executions.
+     */
+    public long getRecovered() {
+        return recovered.sum();
+    }
+
+    /**
+     * The number of executions which failed with a retryable error after all of attempts.
+     *
+     * @return the number of exhausted executions.
+     */
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+
+    /**
+     * The number of executions which failed with a non-retryable error.
+     *
+     * @return the number of fatal failures.
+     */
+    public long getFatalFailures() {
+        return fatalFailures.sum();
+    }
+
+    /**
+     * Total time which was spent for backoff.
+     *
+     * @param unit time unit of returned value
+     * @return total backoff time.
+     */
+    public long getBackoffTime(TimeUnit unit) {
+        return unit.convert(backoffNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    void recordExecution() {
+        executions.increment();
+    }
+
+    void recordAttempt() {
+        attempts.increment();
+    }
+
+    void recordRetry(long backoffNanos) {
+        retries.increment();
+        this.backoffNanos.add(backoffNanos);
+    }
+
+    void recordRecovered() {
+        recovered.increment();
+    }
+
+    void recordExhausted() {
+        exhausted.increment();
+    }
+
+    void recordFatalFailure() {
+        fatalFailures.increment();
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("Executions: ").append(getExecutions())
+                .append(", Attempts: ").append(getAttempts())
+                .append(", Retries: ").append(getRetries())
+                .append(", Recovered: ").append(getRecovered())
+                .append(", Exhausted: ").append(getExhausted())
+                .append(", Fatal Failures: ").append(getFatalFailures())
+                .append(", Backoff Time (ms): ").append(getBackoffTime(TimeUnit.MILLISECONDS)).toString();
+    }
+}
@@ -0,0 +1,177 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Represents the policy to retry a transaction which failed with a transient error,
+ * like a deadlock or a serialization failure.
+ * <p>
+ * Whether an error is retryable or not is decided by SQLState and vendor code of {@code SQLException}
+ * (including chained and cause exceptions). Retries are delayed by exponential backoff with jitter.
+ * <p>
+ * An instance of this class owns {@link RetryMetrics}, so share an instance between executions
+ * which should be aggregated.
+ *
+ * @author moznion
+ */
+@Getter
+public class RetryPolicy {
+    /**
+     * SQLStates which are retryable by default; serialization failure (including MySQL's deadlock)
+     * and PostgreSQL's deadlock.
+     */
+    public static final Set<String> DEFAULT_RETRYABLE_SQL_STATES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList("40001", "40P01")));
+
+    /**
+     * Vendor codes which are retryable by default; MySQL's lock wait timeout (1205) and deadlock (1213).
+     */
+    public static final Set<Integer> DEFAULT_RETRYABLE_VENDOR_CODES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(1205, 1213)));
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double backoffMultiplier;
+    private final double jitter;
+    private final Set<String> retryableSqlStates;
+    private final Set<Integer> retryableVendorCodes;
+    private final RetryMetrics metrics = new RetryMetrics();
+
+    /**
+     * Builder of retry policy.
+     * <p>
+     * This class provides fluent accessors for each fields. You can specify the
+     * field by method chaining.
+     */
+    @Accessors(fluent = true)
+    @Setter
+    public static class Builder {
+        /**
+         * The maximum number of attempts, including the first attempt.
+         */
+        private int maxAttempts = 3;
+
+        /**
+         * Backoff before the first retry.
+         */
+        private long initialBackoffMillis = 10;
+
+        /**
+         * Upper bound of backoff.
+         */
+        private long maxBackoffMillis = 1000;
+
+        /**
+         * Multiplier of backoff for each retry.
+         */
+        private double backoffMultiplier = 2.0;
+
+        /**
+         * Ratio of backoff to randomize (between {@code 0.0} and {@code 1.0}).
+         * When it is {@code 0.5}, actual backoff is between 50% and 100% of computed backoff.
+         */
+        private double jitter = 0.5;
+
+        private Set<String> retryableSqlStates = DEFAULT_RETRYABLE_SQL_STATES;
+        private Set<Integer> retryableVendorCodes = DEFAULT_RETRYABLE_VENDOR_CODES;
+
+        /**
+         * Construct new instance of RetryPolicy based on builder.
+         *
+         * @return new instance of RetryPolicy
+         */
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+
+    /**
+     * Return new builder for this instance.
+     *
+     * @return builder for this instance.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private RetryPolicy(Builder b) {
+        if (b.maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+        if (b.initialBackoffMillis < 0 || b.maxBackoffMillis < 0) {
+            throw new IllegalArgumentException("backoff must not be negative");
+        }
+        if (b.backoffMultiplier < 1.0) {
+            throw new IllegalArgumentException("backoffMultiplier must be greater than or equal to 1.0");
+        }
+        if (b.jitter < 0.0 || b.jitter > 1.0) {
+            throw new IllegalArgumentException("jitter must be between 0.0 and 1.0");
+        }
+        if (b.retryableSqlStates == null || b.retryableVendorCodes == null) {
+            throw new IllegalArgumentException("retryable SQLStates and vendor codes must not be null");
+        }
+
+        maxAttempts = b.maxAttempts;
+        initialBackoffMillis = b.initialBackoffMillis;
+        maxBackoffMillis = b.maxBackoffMillis;
+        backoffMultiplier = b.backoffMultiplier;
+        jitter = b.jitter;
+        retryableSqlStates = Collections.unmodifiableSet(new HashSet<>(b.retryableSqlStates));
+        retryableVendorCodes = Collections.unmodifiableSet(new HashSet<>(b.retryableVendorCodes));
+    }
+
+    /**
+     * Decides whether the error is retryable or not.
+     * <p>
+     * It is retryable when SQLState or vendor code of the exception, its chained exceptions
+     * ({@link SQLException#getNextException()}) or its causes is in the retryable tables.
+     *
+     * @param e an error
+     * @return true if the error is retryable.
+     */
+    public boolean isRetryable(SQLException e) {
+        // drivers can make cycles of chained exceptions and causes
+        Set<SQLException> chained = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Throwable> causes = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (SQLException next = e; next != null && chained.add(next); next = next.getNextException()) {
+            for (Throwable cause = next; cause != null && causes.add(cause); cause = cause.getCause()) {
+                if (cause instanceof SQLException && isRetryableCode((SQLException) cause)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isRetryableCode(SQLException e) {
+        String sqlState = e.getSQLState();
+        return (sqlState != null && retryableSqlStates.contains(sqlState))
+                || retryableVendorCodes.contains(e.getErrorCode());
+    }
+
+    /**
+     * Computes backoff before the retry.
+     *
+     * @param retry the number of retry (1-origin)
+     * @return backoff in milliseconds.
+     */
+    long computeBackoffMillis(int retry) {
+        double backoff = initialBackoffMillis * Math.pow(backoffMultiplier, retry - 1);
+        backoff = Math.min(backoff, maxBackoffMillis);
+        if (jitter > 0.0) {
+            backoff -= backoff * jitter * ThreadLocalRandom.current().nextDouble();
+        }
+        return (long) backoff;
+    }
+}
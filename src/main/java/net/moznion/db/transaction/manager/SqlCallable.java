@@ -0,0 +1,20 @@
+package net.moznion.db.transaction.manager;
+
+import java.sql.SQLException;
+
+/**
+ * A task which returns a result and may throw {@code SQLException}.
+ *
+ * @param <T> the result type of this task
+ * @author moznion
+ */
+@FunctionalInterface
+public interface SqlCallable<T> {
+    /**
+     * Computes a result.
+     *
+     * @return computed result
+     * @throws SQLException
+     */
+    T call() throws SQLException;
+}
@@ -0,0 +1,22 @@
+package net.moznion.db.transaction.manager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A body of transaction which receives the connection of the transaction and may throw {@code SQLException}.
+ *
+ * @param <T> the result type of this function
+ * @author moznion
+ */
+@FunctionalInterface
+public interface SqlFunction<T> {
+    /**
+     * Applies this function in a transaction.
+     *
+     * @param connection the connection of the transaction
+     * @return computed result
+     * @throws SQLException
+     */
+    T apply(Connection connection) throws SQLException;
+}
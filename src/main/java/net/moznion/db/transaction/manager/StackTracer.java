@@ -2,51 +2,177 @@ package net.moznion.db.transaction.manager;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.util.Optional;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
- * The tracer for {@code StackTraceElement}.
+ * The tracer for the caller of transaction manager.
  * <p>
- * This class replace to {@code Thread.currentThread.getStackTrace}.
- * {@code Thread.currentThread.getStackTrace} is really expensive to call, So
- * change to invoke private method of Throwable to realize the same function. It
- * is a bit hackish, but fast and cheap.
+ * This class finds the first stack frame which doesn't belong to the transaction manager itself.
+ * On Java 9 or later it uses {@code StackWalker}, which walks stack frames lazily and stops at the
+ * first frame of the caller, so it doesn't materialize the whole stack trace.
+ * On Java 8 it reads frames one by one through the private methods {@code Throwable#getStackTraceDepth()} and
+ * {@code Throwable#getStackTraceElement(int)} (as the former implementation did), which also doesn't materialize
+ * the whole stack trace. Only if neither of them is available, it falls back to {@code Throwable#getStackTrace()}.
  * <p>
- * ref: {@see <a href="https://github.com/tokuhirom/caller">https://github.com/tokuhirom/caller</a>}
- * </p>
+ * {@code StackWalker} is accessed via method handles because this library is compiled for Java 8.
  *
  * @author moznion
  */
 @Slf4j
 class StackTracer {
-    private static boolean initialized = false;
-    private static Method getStackTraceElement;
+    private static final Set<String> INTERNAL_CLASS_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            StackTracer.class.getName(),
+            CallSiteCapture.class.getName(),
+            TransactionManager.class.getName(),
+            TransactionScope.class.getName(),
+            TransactionContext.class.getName(),
+            TransactionCoordinator.class.getName(),
+            ChunkedTransaction.class.getName()
+    )));
 
-    static Optional<StackTraceElement> getStackTraceElement(int n) {
-        if (!initialized) {
-            initialize();
+    private static final MethodHandle WALK;
+    private static final MethodHandle GET_CLASS_NAME;
+    private static final MethodHandle TO_STACK_TRACE_ELEMENT;
+
+    private static final MethodHandle GET_STACK_TRACE_DEPTH;
+    private static final MethodHandle GET_STACK_TRACE_ELEMENT;
+
+    private static final Function<Stream<Object>, Object> FIND_CALLER = frames -> frames
+            .filter(frame -> !isInternalClass(getClassName(frame)))
+            .findFirst()
+            .map(StackTracer::toStackTraceElement)
+            .orElse(null);
+
+    static {
+        MethodHandle walk = null;
+        MethodHandle getClassName = null;
+        MethodHandle toStackTraceElement = null;
+        try {
+            Class<?> stackWalkerClass = Class.forName("java.lang.StackWalker");
+            Class<?> stackFrameClass = Class.forName("java.lang.StackWalker$StackFrame");
+            MethodHandles.Lookup lookup = MethodHandles.lookup(); // getInstance() is caller sensitive
+
+            Object stackWalker = lookup
+                    .findStatic(stackWalkerClass, "getInstance", MethodType.methodType(stackWalkerClass))
+                    .invoke();
+            walk = lookup
+                    .findVirtual(stackWalkerClass, "walk", MethodType.methodType(Object.class, Function.class))
+                    .bindTo(stackWalker);
+            getClassName = lookup
+                    .findVirtual(stackFrameClass, "getClassName", MethodType.methodType(String.class))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            toStackTraceElement = lookup
+                    .findVirtual(stackFrameClass, "toStackTraceElement",
+                            MethodType.methodType(StackTraceElement.class))
+                    .asType(MethodType.methodType(StackTraceElement.class, Object.class));
+        } catch (ClassNotFoundException e) {
+            // Java 8; use private methods of Throwable
+        } catch (Throwable e) {
+            log.warn("StackWalker is not available: " + e.toString());
+            walk = null;
         }
+        WALK = walk;
+        GET_CLASS_NAME = getClassName;
+        TO_STACK_TRACE_ELEMENT = toStackTraceElement;
 
-        return Optional.ofNullable(getStackTraceElement).map(meth -> {
+        MethodHandle getStackTraceDepth = null;
+        MethodHandle getStackTraceElement = null;
+        if (walk == null) {
             try {
-                return (StackTraceElement) meth.invoke(new Throwable(), n);
-            } catch (Exception e) {
-                return null;
+                getStackTraceDepth = MethodHandles.lookup().unreflect(getThrowableMethod("getStackTraceDepth"));
+                getStackTraceElement = MethodHandles.lookup()
+                        .unreflect(getThrowableMethod("getStackTraceElement", int.class));
+            } catch (PrivilegedActionException | ReflectiveOperationException | RuntimeException e) {
+                log.warn("Throwable.getStackTraceElement is not available: " + e.toString());
+                getStackTraceDepth = null;
+                getStackTraceElement = null;
             }
+        }
+        GET_STACK_TRACE_DEPTH = getStackTraceDepth;
+        GET_STACK_TRACE_ELEMENT = getStackTraceElement;
+    }
+
+    private static Method getThrowableMethod(String name, Class<?>... parameterTypes)
+            throws PrivilegedActionException {
+        return AccessController.doPrivileged((PrivilegedExceptionAction<Method>) () -> {
+            Method method = Throwable.class.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return method;
         });
     }
 
-    private static synchronized void initialize() {
+    /**
+     * Returns the stack frame of the caller of transaction manager.
+     *
+     * @return the caller's frame, or {@code null} if it cannot be determined
+     */
+    static StackTraceElement getCallerStackTraceElement() {
+        if (WALK != null) {
+            try {
+                return (StackTraceElement) (Object) WALK.invokeExact(FIND_CALLER);
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+
+        if (GET_STACK_TRACE_ELEMENT != null) {
+            try {
+                Throwable throwable = new Throwable();
+                int depth = (int) GET_STACK_TRACE_DEPTH.invokeExact(throwable);
+                for (int i = 1; i < depth; i++) { // the first frame is this method
+                    StackTraceElement stackTraceElement =
+                            (StackTraceElement) GET_STACK_TRACE_ELEMENT.invokeExact(throwable, i);
+                    if (!isInternalClass(stackTraceElement.getClassName())) {
+                        return stackTraceElement;
+                    }
+                }
+                return null;
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+
+        for (StackTraceElement stackTraceElement : new Throwable().getStackTrace()) {
+            if (!isInternalClass(stackTraceElement.getClassName())) {
+                return stackTraceElement;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isInternalClass(String className) {
+        int nestedClassDelimiterIndex = className.indexOf('$');
+        if (nestedClassDelimiterIndex >= 0) {
+            className = className.substring(0, nestedClassDelimiterIndex);
+        }
+        return INTERNAL_CLASS_NAMES.contains(className);
+    }
+
+    private static String getClassName(Object stackFrame) {
         try {
-            Method method = Throwable.class.getDeclaredMethod(
-                    "getStackTraceElement", int.class);
-            method.setAccessible(true);
-            getStackTraceElement = method;
-        } catch (NoSuchMethodException e) {
-            log.warn("Throwable.getStackTraceElement is not available: " + e.toString());
-        } finally {
-            initialized = true;
+            return (String) GET_CLASS_NAME.invokeExact(stackFrame);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static StackTraceElement toStackTraceElement(Object stackFrame) {
+        try {
+            return (StackTraceElement) TO_STACK_TRACE_ELEMENT.invokeExact(stackFrame);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
         }
     }
 }
@@ -0,0 +1,75 @@
+package net.moznion.db.transaction.manager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The buffer of statements which are executed as JDBC batches later.
+ * <p>
+ * Consecutive statements which have the same SQL text are grouped into a batch. Statements are executed
+ * in the order in which they are added, so statements of different SQL are never reordered.
+ *
+ * @author moznion
+ */
+class StatementBatch {
+    private final List<Group> groups = new ArrayList<>();
+    private int size = 0;
+
+    private static class Group {
+        private final String sql;
+        private final List<Object[]> parameters = new ArrayList<>();
+
+        private Group(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    void add(String sql, Object[] parameters) {
+        Group group = groups.isEmpty() ? null : groups.get(groups.size() - 1);
+        if (group == null || !group.sql.equals(sql)) {
+            group = new Group(sql);
+            groups.add(group);
+        }
+        group.parameters.add(parameters);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        groups.clear();
+        size = 0;
+    }
+
+    /**
+     * Executes all of buffered statements and clears the buffer.
+     * <p>
+     * The buffer is cleared even if it fails.
+     */
+    void flush(Connection connection) throws SQLException {
+        try {
+            for (Group group : groups) {
+                try (PreparedStatement preparedStatement = connection.prepareStatement(group.sql)) {
+                    for (Object[] parameters : group.parameters) {
+                        for (int i = 0; i < parameters.length; i++) {
+                            preparedStatement.setObject(i + 1, parameters[i]);
+                        }
+                        preparedStatement.addBatch();
+                    }
+                    preparedStatement.executeBatch();
+                }
+            }
+        } finally {
+            clear();
+        }
+    }
+}
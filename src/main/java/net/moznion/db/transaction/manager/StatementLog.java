@@ -0,0 +1,92 @@
+package net.moznion.db.transaction.manager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statements which were executed in a (nested) transaction, aggregated by fingerprint.
+ * This is confined in the thread of the transaction manager.
+ *
+ * @author moznion
+ */
+class StatementLog {
+    /**
+     * The fingerprint of statements which exceeded the maximum number of fingerprints.
+     */
+    static final String OTHERS = "(others)";
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    static class Entry {
+        long count;
+        long rows;
+        long totalNanos;
+        long maxNanos;
+
+        void record(long nanos, long rows) {
+            count++;
+            this.rows += rows;
+            totalNanos += nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+
+        void merge(Entry other) {
+            count += other.count;
+            rows += other.rows;
+            totalNanos += other.totalNanos;
+            if (other.maxNanos > maxNanos) {
+                maxNanos = other.maxNanos;
+            }
+        }
+    }
+
+    Entry entry(String fingerprint, int maxFingerprints) {
+        Entry entry = entries.get(fingerprint);
+        if (entry != null) {
+            return entry;
+        }
+        if (entries.size() >= maxFingerprints) {
+            fingerprint = OTHERS;
+            entry = entries.get(fingerprint);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        entry = new Entry();
+        entries.put(fingerprint, entry);
+        return entry;
+    }
+
+    void mergeInto(StatementLog parent, int maxFingerprints) {
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            parent.entry(e.getKey(), maxFingerprints).merge(e.getValue());
+        }
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    long getTotalNanos() {
+        long total = 0;
+        for (Entry entry : entries.values()) {
+            total += entry.totalNanos;
+        }
+        return total;
+    }
+
+    List<StatementStats> snapshot() {
+        List<StatementStats> stats = new ArrayList<>(entries.size());
+        entries.forEach((fingerprint, entry) -> stats.add(
+                new StatementStats(fingerprint, entry.count, entry.rows, entry.totalNanos, entry.maxNanos)));
+        return stats;
+    }
+}
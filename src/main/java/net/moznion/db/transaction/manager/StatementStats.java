@@ -0,0 +1,73 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable snapshot of statements of a fingerprint which were executed in a transaction.
+ * See {@link StatementTracer}.
+ *
+ * @author moznion
+ */
+@Getter
+public class StatementStats {
+    /**
+     * The normalized SQL, where literals are replaced with {@code ?}.
+     */
+    private final String fingerprint;
+
+    /**
+     * The number of executions.
+     */
+    private final long count;
+
+    /**
+     * The number of affected rows (for updates and batches) or fetched rows (for queries).
+     */
+    private final long rows;
+
+    @Getter(AccessLevel.NONE)
+    private final long totalNanos;
+
+    @Getter(AccessLevel.NONE)
+    private final long maxNanos;
+
+    StatementStats(String fingerprint, long count, long rows, long totalNanos, long maxNanos) {
+        this.fingerprint = fingerprint;
+        this.count = count;
+        this.rows = rows;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * The total execution time.
+     *
+     * @param unit time unit of returned value
+     * @return the total execution time.
+     */
+    public long getTotal(TimeUnit unit) {
+        return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The maximum execution time.
+     *
+     * @param unit time unit of returned value
+     * @return the maximum execution time.
+     */
+    public long getMax(TimeUnit unit) {
+        return unit.convert(maxNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append(fingerprint)
+                .append(": Count: ").append(count)
+                .append(", Total (us): ").append(getTotal(TimeUnit.MICROSECONDS))
+                .append(", Max (us): ").append(getMax(TimeUnit.MICROSECONDS))
+                .append(", Rows: ").append(rows).toString();
+    }
+}
@@ -0,0 +1,150 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * The settings of statement tracing of {@link TransactionManager}.
+ * <p>
+ * If a tracer is set by {@link TransactionManager#setStatementTracer(StatementTracer)}, the manager returns
+ * an instrumented connection from {@link TransactionManager#getConnection()}. Statements which are executed through it
+ * (and its statements) in a transaction are timed, and aggregated by the fingerprint of SQL (literals are replaced
+ * with {@code ?}) on the current transaction. Statements of a nested transaction are added to the outer one when
+ * it is end.
+ * <p>
+ * When the outermost transaction took longer than the slow transaction threshold, the breakdown of its statements
+ * is reported. A tracer can be shared among managers.
+ *
+ * @author moznion
+ */
+@Slf4j
+@Getter
+public class StatementTracer {
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.$])-?\\d+(?:\\.\\d+)?(?:[eE][-+]?\\d+)?");
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * The threshold of slow transactions in milliseconds. {@code 0} disables reporting.
+     */
+    private final long slowTransactionThresholdMillis;
+
+    /**
+     * The maximum number of fingerprints for each transaction. Statements of other fingerprints are aggregated
+     * as {@code (others)}.
+     */
+    private final int maxFingerprints;
+
+    @Getter(AccessLevel.NONE)
+    private final Consumer<String> reporter;
+
+    /**
+     * Builder of {@link StatementTracer}.
+     */
+    @Accessors(fluent = true)
+    @Setter
+    public static class Builder {
+        /**
+         * The threshold of slow transactions. Default value is {@code 1000}; {@code 0} disables reporting.
+         */
+        private long slowTransactionThresholdMillis = 1000;
+
+        /**
+         * The maximum number of fingerprints for each transaction. Default value is {@code 100}.
+         */
+        private int maxFingerprints = 100;
+
+        /**
+         * The receiver of reports of slow transactions. Default reporter logs them as warnings.
+         * It is called on the thread which ends the transaction.
+         */
+        private Consumer<String> reporter = report -> log.warn(report);
+
+        /**
+         * Construct new instance of StatementTracer based on builder.
+         *
+         * @return new instance of StatementTracer
+         */
+        public StatementTracer build() {
+            return new StatementTracer(this);
+        }
+    }
+
+    /**
+     * Return new builder for this class.
+     *
+     * @return builder for this class.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private StatementTracer(Builder b) {
+        if (b.slowTransactionThresholdMillis < 0) {
+            throw new IllegalArgumentException("slowTransactionThresholdMillis must not be negative");
+        }
+        if (b.maxFingerprints <= 0) {
+            throw new IllegalArgumentException("maxFingerprints must be positive");
+        }
+        if (b.reporter == null) {
+            throw new IllegalArgumentException("reporter must not be null");
+        }
+
+        slowTransactionThresholdMillis = b.slowTransactionThresholdMillis;
+        maxFingerprints = b.maxFingerprints;
+        reporter = b.reporter;
+    }
+
+    /**
+     * Normalizes SQL; literals are replaced with {@code ?}, lists of placeholders are collapsed into {@code (?+)}
+     * and whitespaces are collapsed.
+     *
+     * @param sql SQL
+     * @return the fingerprint of SQL.
+     */
+    public static String fingerprint(String sql) {
+        if (sql == null) {
+            return TransactionTraceInfo.UNKNOWN_SYMBOL;
+        }
+
+        String normalized = STRING_LITERAL.matcher(sql).replaceAll("?");
+        normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+        normalized = WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+        return PLACEHOLDER_LIST.matcher(normalized).replaceAll("(?+)");
+    }
+
+    void reportIfSlow(TransactionTraceInfo traceInfo, long durationNanos, StatementLog statementLog) {
+        if (slowTransactionThresholdMillis == 0
+                || durationNanos < TimeUnit.MILLISECONDS.toNanos(slowTransactionThresholdMillis)) {
+            return;
+        }
+
+        List<StatementStats> statements = statementLog.snapshot();
+        statements.sort((a, b) -> Long.compare(b.getTotal(TimeUnit.NANOSECONDS), a.getTotal(TimeUnit.NANOSECONDS)));
+
+        StringBuilder report = new StringBuilder()
+                .append("Slow transaction took ").append(TimeUnit.NANOSECONDS.toMillis(durationNanos)).append(" ms")
+                .append(" (threshold: ").append(slowTransactionThresholdMillis).append(" ms")
+                .append(", statements: ")
+                .append(TimeUnit.NANOSECONDS.toMillis(statementLog.getTotalNanos())).append(" ms): ")
+                .append(traceInfo);
+        for (StatementStats stats : statements) {
+            report.append(System.lineSeparator()).append("  ").append(stats);
+        }
+
+        try {
+            reporter.accept(report.toString());
+        } catch (RuntimeException e) {
+            log.warn("Reporter of statement tracer failed: " + e.toString());
+        }
+    }
+}
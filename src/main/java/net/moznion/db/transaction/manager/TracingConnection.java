@@ -0,0 +1,179 @@
+package net.moznion.db.transaction.manager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * The wrapper of a connection which records statements to the current transaction of {@link TransactionManager}
+ * (see {@link StatementTracer}), and invalidates its query cache when something is written.
+ *
+ * @author moznion
+ */
+class TracingConnection implements InvocationHandler {
+    private static final String BATCH = "(batch)";
+
+    private final TransactionManager transactionManager;
+    private final Connection connection;
+
+    private TracingConnection(TransactionManager transactionManager, Connection connection) {
+        this.transactionManager = transactionManager;
+        this.connection = connection;
+    }
+
+    static Connection create(TransactionManager transactionManager, Connection connection) {
+        return (Connection) Proxy.newProxyInstance(TracingConnection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new TracingConnection(transactionManager, connection));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "TracingConnection: " + connection;
+            default:
+                break;
+        }
+
+        Object result = delegate(connection, method, args);
+        if (result instanceof Statement) {
+            String fingerprint = null;
+            if (transactionManager.getStatementTracer() != null && method.getName().startsWith("prepare")) {
+                fingerprint = StatementTracer.fingerprint((String) args[0]);
+            }
+            return Proxy.newProxyInstance(TracingConnection.class.getClassLoader(),
+                    new Class<?>[]{method.getReturnType()},
+                    new TracingStatement(proxy, (Statement) result, fingerprint));
+        }
+        return result;
+    }
+
+    private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private class TracingStatement implements InvocationHandler {
+        private final Object connectionProxy;
+        private final Statement statement;
+
+        /**
+         * The fingerprint of the prepared statement, or {@code null} for a plain statement.
+         */
+        private final String fingerprint;
+
+        private String batchFingerprint;
+
+        private TracingStatement(Object connectionProxy, Statement statement, String fingerprint) {
+            this.connectionProxy = connectionProxy;
+            this.statement = statement;
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "TracingStatement: " + statement;
+                case "getConnection":
+                    return connectionProxy;
+                case "addBatch":
+                    if (args != null && args.length == 1 && transactionManager.getStatementTracer() != null) {
+                        String added = StatementTracer.fingerprint((String) args[0]);
+                        batchFingerprint = batchFingerprint == null || batchFingerprint.equals(added) ? added : BATCH;
+                    }
+                    return delegate(statement, method, args);
+                case "clearBatch":
+                    batchFingerprint = null;
+                    return delegate(statement, method, args);
+                default:
+                    break;
+            }
+
+            if (!name.startsWith("execute")) {
+                return delegate(statement, method, args);
+            }
+            if (!"executeQuery".equals(name)) {
+                transactionManager.invalidateQueryCache();
+            }
+            if (transactionManager.getStatementTracer() == null) {
+                return delegate(statement, method, args); // only for query cache
+            }
+
+            String executed;
+            if (args != null && args.length > 0 && args[0] instanceof String) {
+                executed = StatementTracer.fingerprint((String) args[0]);
+            } else if (fingerprint != null) {
+                executed = fingerprint;
+            } else {
+                executed = batchFingerprint == null ? BATCH : batchFingerprint;
+            }
+            if (name.endsWith("Batch")) {
+                batchFingerprint = null;
+            }
+
+            long startedAt = System.nanoTime();
+            Object result = null;
+            try {
+                result = delegate(statement, method, args);
+                return result instanceof ResultSet ? traceResultSet(executed, (ResultSet) result, startedAt) : result;
+            } finally {
+                if (!(result instanceof ResultSet)) {
+                    transactionManager.recordStatement(executed, System.nanoTime() - startedAt, rowsOf(result));
+                }
+            }
+        }
+
+        private ResultSet traceResultSet(String executed, ResultSet resultSet, long startedAt) {
+            StatementLog.Entry entry =
+                    transactionManager.recordStatement(executed, System.nanoTime() - startedAt, 0);
+            if (entry == null) {
+                return resultSet;
+            }
+            return (ResultSet) Proxy.newProxyInstance(TracingConnection.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                        Object result = delegate(resultSet, method, args);
+                        if (Boolean.TRUE.equals(result) && "next".equals(method.getName())) {
+                            entry.rows++;
+                        }
+                        return result;
+                    });
+        }
+    }
+
+    private static long rowsOf(Object result) {
+        if (result instanceof Integer) {
+            return Math.max(0, (Integer) result);
+        }
+        if (result instanceof Long) {
+            return Math.max(0, (Long) result);
+        }
+        long rows = 0;
+        if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                rows += Math.max(0, count);
+            }
+        } else if (result instanceof long[]) {
+            for (long count : (long[]) result) {
+                rows += Math.max(0, count);
+            }
+        }
+        return rows;
+    }
+}
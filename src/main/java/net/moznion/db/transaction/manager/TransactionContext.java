@@ -0,0 +1,199 @@
+package net.moznion.db.transaction.manager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+/**
+ * The context which binds a transaction manager to each thread.
+ * <p>
+ * {@link TransactionManager} is not thread safe. This context gives each thread (including virtual threads)
+ * its own manager, which is created on the first use in the thread with a connection from the factory.
+ * So the stack of transactions is confined in a thread and no lock is needed; this class doesn't have any
+ * {@code synchronized} section which pins the carrier thread of a virtual thread.
+ * <p>
+ * The manager (and its connection) of a thread is kept until {@link #release()} is called in that thread.
+ * Call it when the thread finishes its work (e.g. at the end of each request), especially on pooled threads
+ * and virtual threads. If the context is constructed with {@code DataSource}, each manager holds a connection
+ * only while a transaction is active.
+ *
+ * @author moznion
+ */
+public class TransactionContext {
+    private final SqlCallable<TransactionManager> managerFactory;
+    private final Consumer<TransactionManager> initializer;
+    private final ThreadLocal<TransactionManager> managers = new ThreadLocal<>();
+
+    /**
+     * Constructs a context.
+     *
+     * @param connectionFactory a factory of connections; it is called once for each thread
+     */
+    public TransactionContext(SqlCallable<Connection> connectionFactory) {
+        this(connectionFactory, manager -> {
+        });
+    }
+
+    /**
+     * Constructs a context with the initializer of managers.
+     *
+     * @param connectionFactory a factory of connections; it is called once for each thread
+     * @param initializer       a processing to configure a manager when it is created
+     *                          (e.g. {@code manager -> manager.setSavepointEnabled(true)})
+     */
+    public TransactionContext(SqlCallable<Connection> connectionFactory, Consumer<TransactionManager> initializer) {
+        if (connectionFactory == null) {
+            throw new IllegalArgumentException("connectionFactory must not be null");
+        }
+        if (initializer == null) {
+            throw new IllegalArgumentException("initializer must not be null");
+        }
+
+        managerFactory = () -> {
+            Connection connection = connectionFactory.call();
+            if (connection == null) {
+                throw new IllegalStateException("connectionFactory returned null");
+            }
+            return new TransactionManager(connection);
+        };
+        this.initializer = initializer;
+    }
+
+    /**
+     * Constructs a context whose managers borrow a connection from {@code DataSource} for each transaction.
+     *
+     * @param dataSource a data source of connections
+     */
+    public TransactionContext(DataSource dataSource) {
+        this(dataSource, manager -> {
+        });
+    }
+
+    /**
+     * Constructs a context whose managers borrow a connection from {@code DataSource} for each transaction,
+     * with the initializer of managers.
+     *
+     * @param dataSource  a data source of connections
+     * @param initializer a processing to configure a manager when it is created
+     */
+    public TransactionContext(DataSource dataSource, Consumer<TransactionManager> initializer) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource must not be null");
+        }
+        if (initializer == null) {
+            throw new IllegalArgumentException("initializer must not be null");
+        }
+
+        managerFactory = () -> TransactionManager.fromDataSource(dataSource);
+        this.initializer = initializer;
+    }
+
+    /**
+     * Returns the manager of the current thread. It is created if the current thread doesn't have it yet.
+     *
+     * @return the manager of the current thread.
+     * @throws SQLException if the factory failed to create a connection
+     */
+    public TransactionManager getManager() throws SQLException {
+        TransactionManager manager = managers.get();
+        if (manager == null) {
+            manager = managerFactory.call();
+            initializer.accept(manager);
+            managers.set(manager);
+        }
+        return manager;
+    }
+
+    /**
+     * Begins a scope based transaction on the manager of the current thread.
+     *
+     * @return a scope of the began transaction.
+     * @throws SQLException
+     */
+    public TransactionScope begin() throws SQLException {
+        return new TransactionScope(getManager());
+    }
+
+    /**
+     * Begins a scope based transaction on the manager of the current thread with options.
+     *
+     * @param options options to begin transaction
+     * @return a scope of the began transaction.
+     * @throws SQLException
+     */
+    public TransactionScope begin(TransactionOptions options) throws SQLException {
+        return new TransactionScope(getManager(), options);
+    }
+
+    /**
+     * Applies the body in a transaction on the executor, with the manager of the thread which runs the task.
+     * <p>
+     * Each thread of the executor (e.g. a fixed pool of JDBC threads) keeps its own manager and connection, so
+     * transactions run concurrently without sharing a manager. The body can register end hooks through
+     * {@link #getManager()} because it runs on that thread. See
+     * {@link TransactionManager#executeAsync(Executor, SqlFunction)} for completion and end hooks.
+     *
+     * @param executor an executor to run the transaction
+     * @param body     a processing to apply in a transaction
+     * @param <T>      the result type of body
+     * @return the future of the result of body.
+     */
+    public <T> CompletableFuture<T> executeAsync(Executor executor, SqlFunction<T> body) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        if (body == null) {
+            throw new IllegalArgumentException("body must not be null");
+        }
+
+        // the call site is captured on the submitting thread, with the capture of its manager (if any)
+        TransactionManager submitter = managers.get();
+        StackTraceElement callSite =
+                (submitter == null ? CallSiteCapture.full() : submitter.getCallSiteCapture()).capture();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                TransactionManager manager;
+                try {
+                    manager = getManager();
+                } catch (SQLException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                manager.completeInTransaction(future, body, callSite);
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Releases the manager of the current thread and closes its connection (if the manager doesn't use
+     * {@code DataSource}).
+     * <p>
+     * It does nothing if the current thread doesn't have a manager.
+     *
+     * @throws SQLException if it failed to close the connection
+     * @throws IllegalStateException if a transaction is active in the current thread
+     */
+    public void release() throws SQLException {
+        TransactionManager manager = managers.get();
+        if (manager == null) {
+            return;
+        }
+        if (manager.getDepth() > 0) {
+            throw new IllegalStateException("Tried to release a transaction manager but a transaction is active");
+        }
+
+        managers.remove();
+        if (manager.getDataSource() == null) {
+            manager.getConnection().close();
+        }
+    }
+}
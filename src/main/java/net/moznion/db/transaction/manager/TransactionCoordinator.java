@@ -0,0 +1,365 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The scope based handler of transactions over several transaction managers (e.g. one for each shard).
+ * <p>
+ * The constructor begins a transaction on each manager. {@link #commit()} commits the shards in parallel on
+ * the executor, so the latency is not the sum of commit round trips. If a commit fails, the shards whose commit
+ * has not started yet are rollbacked instead. Note that this is not a two-phase commit; shards which had been
+ * committed (or were committing) when another shard failed remain committed. The result tells exactly which
+ * shards were committed.
+ * <p>
+ * End hooks which were registered on the managers during the transaction are combined and run once after all
+ * of commits finished (only for committed shards), followed by the end hooks of this coordinator (only if all
+ * shards were committed). They run on the thread which calls {@link #commit()}, and an exception of a hook is
+ * logged and doesn't prevent subsequent hooks from running.
+ * <p>
+ * Don't use the managers on other threads while {@link #commit()} is running.
+ *
+ * @author moznion
+ */
+@Slf4j
+public class TransactionCoordinator implements AutoCloseable {
+    private final List<String> names;
+    private final List<TransactionManager> managers;
+    private final Executor executor;
+    private final List<Runnable> endHooks = new ArrayList<>();
+    private final Thread owner;
+    private boolean isActioned = false;
+
+    /**
+     * The status of a shard after commit.
+     */
+    public enum ShardStatus {
+        /**
+         * The shard was committed.
+         */
+        COMMITTED,
+        /**
+         * The shard was rollbacked because another shard failed before its commit started.
+         */
+        ROLLED_BACK,
+        /**
+         * The commit of the shard failed and the shard was rollbacked. If the connection was lost during
+         * the commit, the outcome of the shard is unknown.
+         */
+        FAILED,
+    }
+
+    /**
+     * The result of commit of shards.
+     */
+    public static class Result {
+        private final Map<String, ShardStatus> statuses;
+        private final Map<String, Throwable> errors;
+
+        Result(Map<String, ShardStatus> statuses, Map<String, Throwable> errors) {
+            this.statuses = Collections.unmodifiableMap(statuses);
+            this.errors = Collections.unmodifiableMap(errors);
+        }
+
+        /**
+         * The statuses of shards, in the order of shards.
+         *
+         * @return the statuses of shards.
+         */
+        public Map<String, ShardStatus> getStatuses() {
+            return statuses;
+        }
+
+        /**
+         * The errors of shards which failed (or failed to rollback).
+         *
+         * @return the errors of shards.
+         */
+        public Map<String, Throwable> getErrors() {
+            return errors;
+        }
+
+        /**
+         * The names of shards which have the status.
+         *
+         * @param status status of shards
+         * @return the names of shards.
+         */
+        public List<String> getShards(ShardStatus status) {
+            List<String> shards = new ArrayList<>();
+            statuses.forEach((name, s) -> {
+                if (s == status) {
+                    shards.add(name);
+                }
+            });
+            return shards;
+        }
+
+        /**
+         * Whether all of shards were committed.
+         *
+         * @return {@code true} if all of shards were committed.
+         */
+        public boolean isAllCommitted() {
+            return !statuses.containsValue(ShardStatus.ROLLED_BACK) && !statuses.containsValue(ShardStatus.FAILED);
+        }
+
+        @Override
+        public String toString() {
+            return statuses.toString();
+        }
+    }
+
+    /**
+     * Constructs a coordinator and begins a transaction on each manager.
+     *
+     * @param shards   named transaction managers; they must not have an active transaction
+     * @param executor an executor to commit shards in parallel
+     * @throws SQLException if it failed to begin a transaction; transactions which have began are rollbacked
+     */
+    public TransactionCoordinator(Map<String, TransactionManager> shards, Executor executor) throws SQLException {
+        this(shards, executor, TransactionOptions.defaults());
+    }
+
+    /**
+     * Constructs a coordinator and begins a transaction on each manager with options.
+     *
+     * @param shards   named transaction managers; they must not have an active transaction
+     * @param executor an executor to commit shards in parallel
+     * @param options  options to begin transactions
+     * @throws SQLException if it failed to begin a transaction; transactions which have began are rollbacked
+     */
+    public TransactionCoordinator(Map<String, TransactionManager> shards, Executor executor,
+                                  TransactionOptions options) throws SQLException {
+        if (shards == null || shards.isEmpty()) {
+            throw new IllegalArgumentException("shards must not be empty");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("options must not be null");
+        }
+
+        names = new ArrayList<>(shards.keySet());
+        managers = new ArrayList<>(shards.values());
+        for (TransactionManager manager : managers) {
+            if (manager == null) {
+                throw new IllegalArgumentException("manager must not be null");
+            }
+            if (manager.getDepth() != 0) {
+                throw new IllegalStateException("Tried to coordinate a transaction manager which has a transaction");
+            }
+        }
+        this.executor = executor;
+        owner = Thread.currentThread();
+
+        for (int i = 0; i < managers.size(); i++) {
+            try {
+                managers.get(i).txnBegin(options);
+            } catch (SQLException | RuntimeException e) {
+                for (int j = 0; j < i; j++) {
+                    try {
+                        managers.get(j).txnRollback();
+                    } catch (SQLException rollbackError) {
+                        e.addSuppressed(rollbackError);
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The manager of the shard.
+     *
+     * @param name name of the shard
+     * @return the manager of the shard.
+     */
+    public TransactionManager getManager(String name) {
+        int index = names.indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown shard: " + name);
+        }
+        return managers.get(index);
+    }
+
+    /**
+     * Add an end hook which runs once after all of shards were committed.
+     *
+     * @param r a processing for end hook
+     */
+    public void addEndHook(Runnable r) {
+        endHooks.add(r);
+    }
+
+    /**
+     * Commits all of shards in parallel.
+     *
+     * @return the result of commit, where all of shards were committed.
+     * @throws CoordinatedCommitException if any shard was not committed; it has the result
+     * @throws IllegalStateException      if it has been already committed or rollbacked, or a nested transaction
+     *                                    is active on a shard
+     */
+    public Result commit() throws SQLException {
+        if (isActioned) {
+            throw new IllegalStateException("Tried to commit but it had already been committed or rollbacked");
+        }
+        for (TransactionManager manager : managers) {
+            if (manager.getDepth() != 1) {
+                throw new IllegalStateException("Tried to commit but a shard has a nested transaction");
+            }
+        }
+        isActioned = true;
+
+        int size = managers.size();
+        List<List<Runnable>> shardEndHooks = new ArrayList<>(size);
+        for (TransactionManager manager : managers) {
+            shardEndHooks.add(manager.takeEndHooks());
+        }
+
+        ShardStatus[] statuses = new ShardStatus[size];
+        Throwable[] errors = new Throwable[size];
+        AtomicBoolean failed = new AtomicBoolean(false);
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[size];
+        for (int i = 0; i < size; i++) {
+            int index = i;
+            Runnable task = () -> commitShard(index, failed, statuses, errors);
+            try {
+                futures[i] = CompletableFuture.runAsync(task, executor);
+            } catch (RejectedExecutionException e) {
+                futures[i] = CompletableFuture.runAsync(task, Runnable::run); // on the caller thread
+            }
+        }
+        CompletableFuture.allOf(futures).join();
+
+        Map<String, ShardStatus> statusMap = new LinkedHashMap<>();
+        Map<String, Throwable> errorMap = new LinkedHashMap<>();
+        Throwable firstError = null;
+        for (int i = 0; i < size; i++) {
+            statusMap.put(names.get(i), statuses[i]);
+            if (errors[i] != null) {
+                errorMap.put(names.get(i), errors[i]);
+                if (firstError == null && statuses[i] == ShardStatus.FAILED) {
+                    firstError = errors[i];
+                }
+            }
+        }
+        Result result = new Result(statusMap, errorMap);
+
+        for (int i = 0; i < size; i++) {
+            if (statuses[i] == ShardStatus.COMMITTED) {
+                runHooks(shardEndHooks.get(i));
+            }
+        }
+
+        if (!result.isAllCommitted()) {
+            endHooks.clear();
+            throw new CoordinatedCommitException("Failed to commit shards: " + result, result, firstError);
+        }
+
+        List<Runnable> hooks = new ArrayList<>(endHooks);
+        endHooks.clear();
+        runHooks(hooks);
+        return result;
+    }
+
+    private void commitShard(int index, AtomicBoolean failed, ShardStatus[] statuses, Throwable[] errors) {
+        TransactionManager manager = managers.get(index);
+        if (failed.get()) {
+            statuses[index] = ShardStatus.ROLLED_BACK;
+            try {
+                manager.txnRollback();
+            } catch (SQLException | RuntimeException e) {
+                errors[index] = e;
+            }
+            return;
+        }
+
+        try {
+            manager.txnCommit();
+            statuses[index] = ShardStatus.COMMITTED;
+        } catch (SQLException | RuntimeException e) {
+            failed.set(true);
+            statuses[index] = ShardStatus.FAILED;
+            errors[index] = e;
+
+            // e.g. AlreadyRollbackedException doesn't end the transaction
+            if (manager.getDepth() > 0) {
+                try {
+                    manager.txnRollback();
+                } catch (SQLException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rollbacks all of shards.
+     *
+     * @throws SQLException the first error if any shard failed to rollback; all of shards are tried anyway
+     */
+    public void rollback() throws SQLException {
+        if (isActioned) {
+            return; // do not run twice
+        }
+        isActioned = true;
+        endHooks.clear();
+
+        SQLException error = null;
+        for (TransactionManager manager : managers) {
+            try {
+                while (manager.getDepth() > 0) {
+                    manager.txnRollback();
+                }
+            } catch (SQLException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Rollbacks all of shards if they have not been committed or rollbacked yet.
+     * <p>
+     * It does nothing when it is called on a thread which is not the owner of this coordinator.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        if (isActioned || Thread.currentThread() != owner) {
+            return;
+        }
+        rollback();
+    }
+
+    private static void runHooks(List<Runnable> hooks) {
+        for (Runnable hook : hooks) {
+            try {
+                hook.run();
+            } catch (RuntimeException e) {
+                log.warn("End hook failed: " + e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package net.moznion.db.transaction.manager;
+
+import java.sql.Savepoint;
+
+/**
+ * Represents a (nested) transaction on the stack of transaction manager.
+ * <p>
+ * Frames are owned by the manager and reused by subsequent transactions of the same depth, so beginning
+ * a transaction doesn't allocate. {@link TransactionTraceInfo} is created only when it is requested.
+ *
+ * @author moznion
+ */
+class TransactionFrame {
+    /**
+     * Call site which began this transaction, or {@code null} if it was not captured.
+     */
+    StackTraceElement callSite;
+
+    /**
+     * The ID of the thread which began this transaction.
+     */
+    long threadId;
+
+    /**
+     * The value of {@code System.currentTimeMillis()} on begin.
+     */
+    long startedAt;
+
+    /**
+     * The value of {@code System.nanoTime()} on begin.
+     */
+    long beganAt;
+
+    /**
+     * Whether this frame rollbacks to its savepoint (instead of making the outer transaction fail).
+     */
+    boolean savepointRequested;
+
+    /**
+     * Savepoint which is taken on begin, or {@code null} if this frame doesn't have.
+     * In lazy begin mode, it is taken when the transaction actually begins on the DB.
+     */
+    Savepoint savepoint;
+
+    /**
+     * The number of end hooks which had been registered on begin.
+     */
+    int endHookMark;
+
+    /**
+     * The number of rollback hooks which had been registered on begin.
+     */
+    int rollbackHookMark;
+
+    /**
+     * The number of keys of batch hooks which had been added on begin.
+     */
+    int batchHookMark;
+
+    /**
+     * The number of rollbacked nested transactions on begin.
+     */
+    int rollbackedMark;
+
+    /**
+     * Statements which were executed in this transaction, or {@code null} if statement tracing has not been used.
+     * It is reused with this frame.
+     */
+    StatementLog statementLog;
+
+    private TransactionTraceInfo traceInfo;
+
+    void init(StackTraceElement callSite, long threadId, long startedAt, long beganAt,
+              boolean savepointRequested, Savepoint savepoint, int endHookMark, int rollbackHookMark,
+              int batchHookMark, int rollbackedMark) {
+        this.callSite = callSite;
+        this.threadId = threadId;
+        this.startedAt = startedAt;
+        this.beganAt = beganAt;
+        this.savepointRequested = savepointRequested;
+        this.savepoint = savepoint;
+        this.endHookMark = endHookMark;
+        this.rollbackHookMark = rollbackHookMark;
+        this.batchHookMark = batchHookMark;
+        this.rollbackedMark = rollbackedMark;
+        traceInfo = null;
+    }
+
+    /**
+     * Drops references of the finished transaction.
+     */
+    void clear() {
+        callSite = null;
+        savepoint = null;
+        traceInfo = null;
+        if (statementLog != null) {
+            statementLog.clear();
+        }
+    }
+
+    /**
+     * The trace information of this transaction. It is created on the first call and cached until
+     * the frame is reused.
+     *
+     * @return the trace information of this transaction.
+     */
+    TransactionTraceInfo getTraceInfo() {
+        if (traceInfo == null) {
+            TransactionTraceInfo.Builder builder = TransactionTraceInfo.builder()
+                    .threadId(threadId)
+                    .startedAt(startedAt);
+            if (callSite != null) {
+                builder.className(callSite.getClassName())
+                        .fileName(callSite.getFileName())
+                        .methodName(callSite.getMethodName())
+                        .lineNumber(callSite.getLineNumber());
+            }
+            traceInfo = builder.build();
+        }
+        return traceInfo;
+    }
+}
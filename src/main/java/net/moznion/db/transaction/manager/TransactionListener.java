@@ -0,0 +1,67 @@
+package net.moznion.db.transaction.manager;
+
+/**
+ * The listener of events of transactions.
+ * <p>
+ * Register an implementation by {@link TransactionManager#addTransactionListener(TransactionListener)}.
+ * Callbacks are called synchronously on the thread which operates the transaction, so implementations
+ * should be cheap and must not throw. All callbacks have an empty default implementation.
+ * <p>
+ * {@code callSite} is the call site which began the (nested) transaction, or {@code null} if it was not
+ * captured (see {@link CallSiteCapture}).
+ *
+ * @author moznion
+ */
+public interface TransactionListener {
+    /**
+     * Called when a transaction began.
+     *
+     * @param manager  the transaction manager
+     * @param depth    the depth of the began transaction; {@code 1} means the outermost transaction
+     * @param callSite the call site which began the transaction
+     */
+    default void onBegin(TransactionManager manager, int depth, StackTraceElement callSite) {
+    }
+
+    /**
+     * Called when the outermost transaction was committed.
+     *
+     * @param manager       the transaction manager
+     * @param callSite      the call site which began the outermost transaction
+     * @param commitNanos   the time which {@code Connection#commit()} took
+     * @param durationNanos the time from begin to end of the outermost transaction
+     */
+    default void onCommit(TransactionManager manager, StackTraceElement callSite, long commitNanos,
+                          long durationNanos) {
+    }
+
+    /**
+     * Called when the outermost transaction was rollbacked, including the case that commit failed.
+     *
+     * @param manager       the transaction manager
+     * @param callSite      the call site which began the outermost transaction
+     * @param durationNanos the time from begin to end of the outermost transaction
+     */
+    default void onRollback(TransactionManager manager, StackTraceElement callSite, long durationNanos) {
+    }
+
+    /**
+     * Called when a nested transaction was rollbacked.
+     *
+     * @param manager  the transaction manager
+     * @param callSite the call site which began the nested transaction
+     * @param depth    the depth of the rollbacked transaction
+     */
+    default void onNestedRollback(TransactionManager manager, StackTraceElement callSite, int depth) {
+    }
+
+    /**
+     * Called when end hooks (or rollback hooks) were run (or dispatched by {@link EndHookDispatcher}).
+     *
+     * @param manager      the transaction manager
+     * @param count        the number of hooks
+     * @param elapsedNanos the time which running (or dispatching) hooks took on the calling thread
+     */
+    default void onEndHooks(TransactionManager manager, int count, long elapsedNanos) {
+    }
+}
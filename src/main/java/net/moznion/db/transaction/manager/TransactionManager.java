@@ -1,30 +1,168 @@
 package net.moznion.db.transaction.manager;
 
 import lombok.Getter;
-import net.moznion.db.transaction.manager.TransactionTraceInfo.Builder;
+import lombok.extern.slf4j.Slf4j;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
 
 /**
  * The manager for transaction.
+ * <p>
+ * A manager is not thread safe; use it in one thread at a time, or use {@link TransactionContext}
+ * which gives each thread its own manager.
  *
  * @author moznion
  */
+@Slf4j
 public class TransactionManager {
-    private List<TransactionTraceInfo> activeTransactions;
+    private static final int INITIAL_FRAMES = 4;
+    private static final TransactionOptions NESTED_OPTIONS = TransactionOptions.builder().savepoint(true).build();
+
+    /**
+     * The stack of active transactions. Frames are reused, and only {@code frames[0, depth)} are active.
+     */
+    private TransactionFrame[] frames = new TransactionFrame[INITIAL_FRAMES];
+    private int depth = 0;
     private int rollbackedInNestedTransaction = 0;
 
     @Getter
     private Boolean originalAutoCommitStatus = null;
 
+    /**
+     * The connection of DB. In {@code DataSource} mode, it is {@code null} while no transaction is active.
+     */
+    private volatile Connection connection;
+
+    @Getter
+    private final DataSource dataSource;
+
     @Getter
-    private final Connection connection;
+    private DataSource replicaDataSource = null;
+
+    /**
+     * Read-only mode which is requested by the outermost transaction, or {@code null} if it is not specified.
+     */
+    private Boolean requestedReadOnly = null;
+
+    /**
+     * Read-only mode of the connection before the transaction, or {@code null} if it was not changed.
+     */
+    private Boolean originalReadOnlyStatus = null;
+
+    /**
+     * Transaction isolation level which is requested for the outermost transaction, or {@code null} if it is
+     * not specified.
+     */
+    private Integer requestedIsolationLevel = null;
+
+    /**
+     * Transaction isolation level of the connection before the transaction, or {@code null} if it was not changed.
+     */
+    private Integer originalIsolationLevel = null;
 
     private final List<Runnable> endHooks;
+    private final List<Runnable> rollbackHooks;
+    private final BatchHookKeys batchHookKeys = new BatchHookKeys();
+
+    @Getter
+    private EndHookDispatcher endHookDispatcher = null;
+
+    @Getter
+    private boolean oneShotEndHooksEnabled = false;
+
+    /**
+     * The number of end hooks which have been taken by {@link #takeEndHooks()} in the current transaction.
+     */
+    private int takenEndHooks = 0;
+
+    @Getter
+    private CallSiteCapture callSiteCapture = CallSiteCapture.full();
+
+    @Getter
+    private boolean savepointEnabled = false;
+
+    private final ConnectionState connectionState;
+
+    @Getter
+    private boolean connectionStateCacheEnabled = false;
+
+    private final StatementBatch statementBatch = new StatementBatch();
+
+    @Getter
+    private int batchLimit = 1000;
+
+    private TransactionListener[] listeners = new TransactionListener[0];
+
+    @Getter
+    private boolean lazyBeginEnabled = false;
+
+    /**
+     * Whether the transaction has actually began on the connection. It is always {@code true} while
+     * a transaction is active unless lazy begin mode is enabled.
+     */
+    private boolean materialized = false;
+
+    private Connection lazyConnection = null;
+
+    @Getter
+    private SqlCallable<Connection> newConnectionFactory = null;
+
+    @Getter
+    private StatementTracer statementTracer = null;
+
+    private Connection tracedTarget = null;
+    private Connection tracingConnection = null;
+
+    private boolean queryCacheEnabled = false;
+    private final QueryCache queryCache = new QueryCache();
+    private QueryCachePublisher queryCachePublisher = null;
+
+    /**
+     * The number of watchdogs which watch this manager.
+     */
+    private final AtomicInteger watchers = new AtomicInteger();
+
+    /**
+     * The outermost transaction, which is published for {@link TransactionWatchdog} only while this manager
+     * is watched.
+     */
+    private volatile WatchedTransaction watchedTransaction = null;
+
+    /**
+     * The immutable snapshot of the outermost transaction, which can be read from other threads.
+     */
+    static final class WatchedTransaction {
+        final TransactionTraceInfo traceInfo;
+        final long beganAt;
+
+        WatchedTransaction(TransactionTraceInfo traceInfo, long beganAt) {
+            this.traceInfo = traceInfo;
+            this.beganAt = beganAt;
+        }
+    }
+
+    /**
+     * The lock which makes aborting the connection by {@link TransactionWatchdog} atomic with the end of
+     * the outermost transaction.
+     */
+    private final Object abortLock = new Object();
 
     /**
      * Constructs a transaction manager.
@@ -32,26 +170,85 @@ public class TransactionManager {
      * @param connection a connection of DB
      */
     public TransactionManager(Connection connection) {
-        if (connection == null) {
-            throw new IllegalArgumentException("connection must not be null");
+        this(requireConnection(connection), null);
+    }
+
+    /**
+     * Constructs a transaction manager which borrows a connection from {@code DataSource} for each transaction.
+     * <p>
+     * A connection is borrowed when the outermost transaction begins, and it is closed (i.e. returned to the pool)
+     * when the outermost transaction is end. So the connection is held only while a transaction is active.
+     *
+     * @param dataSource a data source of connections
+     * @return a transaction manager
+     */
+    public static TransactionManager fromDataSource(DataSource dataSource) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource must not be null");
         }
+        return new TransactionManager(null, dataSource);
+    }
 
+    private TransactionManager(Connection connection, DataSource dataSource) {
         this.connection = connection;
-        activeTransactions = new ArrayList<>();
+        this.dataSource = dataSource;
+        connectionState = new ConnectionState(connection);
         endHooks = new ArrayList<>();
+        rollbackHooks = new ArrayList<>();
+    }
+
+    private static Connection requireConnection(Connection connection) {
+        if (connection == null) {
+            throw new IllegalArgumentException("connection must not be null");
+        }
+        return connection;
+    }
+
+    /**
+     * The connection of DB.
+     * <p>
+     * If this manager is constructed with {@code DataSource}, this returns the connection which is borrowed
+     * for the current transaction.
+     *
+     * @return the connection of DB.
+     * @throws IllegalStateException if this manager is constructed with {@code DataSource} and there is
+     *                               no active transaction
+     */
+    public Connection getConnection() {
+        Connection connection;
+        if (lazyBeginEnabled && (dataSource == null || depth > 0)) {
+            if (lazyConnection == null) {
+                lazyConnection = LazyConnection.create(this);
+            }
+            connection = lazyConnection;
+        } else {
+            connection = this.connection;
+            if (connection == null) {
+                throw new IllegalStateException(
+                        "There is no active transaction; a connection is borrowed from DataSource only in a transaction");
+            }
+        }
+
+        if (statementTracer == null && !queryCacheEnabled) {
+            return connection;
+        }
+        if (tracedTarget != connection) {
+            tracingConnection = TracingConnection.create(this, connection);
+            tracedTarget = connection;
+        }
+        return tracingConnection;
     }
 
     /**
      * Begins transaction.
      * <p>
      * This method backups automatically the status of auto commit mode when
-     * this is called. The status will be turned back when transaction is end.
+     * this begins the outermost transaction. The status will be turned back when transaction is end.
      *
      * @throws SQLException
      */
     public void txnBegin() throws SQLException {
-        originalAutoCommitStatus = connection.getAutoCommit();
-        txnBegin(originalAutoCommitStatus);
+        txnBegin(TransactionOptions.defaults());
     }
 
     /**
@@ -65,38 +262,90 @@ public class TransactionManager {
      * @throws SQLException
      */
     public void txnBegin(boolean originalAutoCommitStatus) throws SQLException {
-        if (activeTransactions.size() == 0) {
-            this.originalAutoCommitStatus = originalAutoCommitStatus;
-            connection.setAutoCommit(false); // Enable transaction
+        txnBegin(originalAutoCommitStatus, TransactionOptions.defaults());
+    }
+
+    /**
+     * Begins transaction with options.
+     * <p>
+     * This method backups automatically the status of auto commit mode when
+     * this begins the outermost transaction. The status will be turned back when transaction is end.
+     *
+     * @param options options to begin transaction
+     * @throws SQLException
+     */
+    public void txnBegin(TransactionOptions options) throws SQLException {
+        if (options == null) {
+            throw new IllegalArgumentException("options must not be null");
+        }
+
+        txnBegin(null, options); // original auto commit status is read from the connection
+    }
+
+    private void txnBegin(Boolean originalAutoCommitStatus, TransactionOptions options) throws SQLException {
+        if (options == null) {
+            throw new IllegalArgumentException("options must not be null");
         }
 
-        // `6` is really magical!! But it points the transaction stack
-        Optional<StackTraceElement> maybeStackTraceElement = StackTracer
-                .getStackTraceElement(6);
+        txnBegin(originalAutoCommitStatus, options, callSiteCapture.capture());
+    }
+
+    /**
+     * Begins transaction with the call site which was captured in advance (e.g. on the thread which submitted
+     * an asynchronous transaction).
+     */
+    private void txnBegin(Boolean originalAutoCommitStatus, TransactionOptions options, StackTraceElement callSite)
+            throws SQLException {
 
-        Thread currentThread = Thread.currentThread();
+        if (depth > 0 && Boolean.TRUE.equals(requestedReadOnly)
+                && Boolean.FALSE.equals(options.getReadOnly())) {
+            throw new IllegalStateException("Tried to begin a read-write transaction in a read-only transaction");
+        }
+        if (depth > 0 && options.getIsolationLevel() != null) {
+            checkNestedIsolationLevel(options.getIsolationLevel());
+        }
 
-        Builder ttiBuilder = TransactionTraceInfo.builder();
-        ttiBuilder.threadId(currentThread.getId());
+        boolean savepointRequested = false;
+        Savepoint savepoint = null;
+        if (depth == 0) {
+            this.originalAutoCommitStatus = originalAutoCommitStatus;
+            requestedReadOnly = options.getReadOnly();
+            requestedIsolationLevel = options.getIsolationLevel();
+            if (!lazyBeginEnabled) {
+                beginOnConnection();
+            }
+        } else if (savepointEnabled || options.isSavepoint()) {
+            savepointRequested = true;
+            // buffered statements belong to the outside of the savepoint
+            flushBatch();
+            if (materialized) {
+                savepoint = connection.setSavepoint();
+            }
+        }
 
-        if (maybeStackTraceElement.isPresent()) {
-            StackTraceElement stackTraceElement = maybeStackTraceElement.get();
-            ttiBuilder.className(stackTraceElement.getClassName())
-                    .fileName(stackTraceElement.getFileName())
-                    .methodName(stackTraceElement.getMethodName())
-                    .lineNumber(stackTraceElement.getLineNumber());
+        TransactionFrame frame = pushFrame();
+        frame.init(callSite, Thread.currentThread().getId(), System.currentTimeMillis(), System.nanoTime(),
+                savepointRequested, savepoint, endHooks.size(), rollbackHooks.size(), batchHookKeys.size(),
+                rollbackedInNestedTransaction);
+        if (depth == 1 && watchers.get() > 0) {
+            watchedTransaction = new WatchedTransaction(frame.getTraceInfo(), frame.beganAt);
         }
 
-        activeTransactions.add(ttiBuilder.build());
+        for (TransactionListener listener : listeners) {
+            listener.onBegin(this, depth, callSite);
+        }
     }
 
     /**
      * Commits the current transaction.
+     * <p>
+     * If the current transaction is the outermost one, end hooks run after commit.
+     * If the current transaction is a nested one which has a savepoint, the savepoint is released.
      *
      * @throws SQLException
      */
     public void txnCommit() throws SQLException {
-        if (activeTransactions.size() <= 0) {
+        if (depth <= 0) {
             return;
         }
 
@@ -106,81 +355,1271 @@ public class TransactionManager {
         }
 
         // remove a last item
-        activeTransactions.remove(activeTransactions.size() - 1);
+        TransactionFrame frame = frames[--depth];
 
-        if (activeTransactions.size() == 0) {
-            connection.commit();
-            txnEnd();
-            endHooks.forEach(java.lang.Runnable::run);
+        if (depth == 0) {
+            long commitNanos = 0;
+            try {
+                flushBatch();
+                if (materialized) {
+                    long commitStartedAt = listeners.length > 0 ? System.nanoTime() : 0;
+                    connection.commit();
+                    commitNanos = listeners.length > 0 ? System.nanoTime() - commitStartedAt : 0;
+                }
+            } catch (SQLException e) {
+                finishStatements(frame);
+                rollbackOnFailedCommit(frame.callSite, frame.beganAt, e);
+                frame.clear();
+                throw e;
+            }
+
+            finishStatements(frame);
+            StackTraceElement callSite = frame.callSite;
+            long beganAt = frame.beganAt;
+            frame.clear();
+
+            List<Runnable> hooks = drainCommitHooks();
+            rollbackHooks.clear();
+            try {
+                txnEnd();
+            } finally {
+                if (listeners.length > 0) {
+                    long durationNanos = System.nanoTime() - beganAt;
+                    for (TransactionListener listener : listeners) {
+                        listener.onCommit(this, callSite, commitNanos, durationNanos);
+                    }
+                }
+                runHooks(hooks);
+            }
+        } else {
+            finishStatements(frame);
+            Savepoint savepoint = frame.savepoint;
+            frame.clear();
+            if (savepoint != null) {
+                try {
+                    connection.releaseSavepoint(savepoint);
+                } catch (SQLFeatureNotSupportedException e) {
+                    // savepoint will be released when the outermost transaction is end
+                }
+            }
         }
     }
 
     /**
      * Rollbacks the current transaction.
+     * <p>
+     * If the current transaction is the outermost one, rollback hooks run after rollback.
+     * <p>
+     * If the current transaction is a nested one which has a savepoint, this rollbacks only to the savepoint;
+     * end hooks which were added in the nested transaction are discarded and rollback hooks which were added in
+     * that run. The outer transaction can be committed in this case.
      *
      * @throws SQLException
      */
     public void txnRollback() throws SQLException {
-        if (activeTransactions.size() <= 0) {
+        if (depth <= 0) {
             return;
         }
 
         // remove a last item
-        activeTransactions.remove(activeTransactions.size() - 1);
+        TransactionFrame frame = frames[--depth];
+        finishStatements(frame);
+        StackTraceElement callSite = frame.callSite;
+        long beganAt = frame.beganAt;
+        Savepoint savepoint = frame.savepoint;
+        frame.clear();
 
-        if (activeTransactions.size() > 0) {
-            rollbackedInNestedTransaction++;
+        if (depth > 0) {
+            for (TransactionListener listener : listeners) {
+                listener.onNestedRollback(this, callSite, depth + 1);
+            }
+
+            if (!frame.savepointRequested) {
+                rollbackedInNestedTransaction++;
+                return;
+            }
+
+            statementBatch.clear();
+            if (savepoint != null) {
+                connection.rollback(savepoint);
+            }
+            endHooks.subList(frame.endHookMark, endHooks.size()).clear();
+            batchHookKeys.truncate(frame.batchHookMark);
+            queryCache.clear(); // results may have been read after rollbacked writes
+            rollbackedInNestedTransaction = frame.rollbackedMark;
+
+            List<Runnable> nestedRollbackHooks = rollbackHooks.subList(frame.rollbackHookMark, rollbackHooks.size());
+            List<Runnable> hooks = drainHooks(nestedRollbackHooks);
+            runHooks(hooks);
         } else {
-            connection.rollback();
-            txnEnd();
+            List<Runnable> hooks = drainHooks(rollbackHooks);
+            discardEndHooksOnRollback();
+            batchHookKeys.clear();
+            try {
+                try {
+                    if (materialized) {
+                        connection.rollback();
+                    }
+                } catch (SQLException e) {
+                    // e.g. the connection was aborted; the transaction must be end anyway
+                    try {
+                        txnEnd();
+                    } catch (SQLException endError) {
+                        e.addSuppressed(endError);
+                    }
+                    throw e;
+                }
+                txnEnd();
+            } finally {
+                fireRollback(callSite, beganAt);
+                runHooks(hooks);
+            }
         }
     }
 
     /**
-     * Add an end hook for transaction.
+     * Begins a chunked transaction for bulk loads, which commits automatically every N operations
+     * (or M milliseconds) and begins the next transaction. See {@link ChunkedTransaction}.
+     *
+     * @param options options of chunks
+     * @return the handler of the chunked transaction.
+     * @throws SQLException
+     * @throws IllegalStateException if a transaction is active
+     */
+    public ChunkedTransaction txnBeginChunked(ChunkOptions options) throws SQLException {
+        if (options == null) {
+            throw new IllegalArgumentException("options must not be null");
+        }
+        return new ChunkedTransaction(this, options);
+    }
+
+    /**
+     * Adds a statement to execute later in the current transaction (write-behind).
      * <p>
-     * Registered end hooks run only when all of transactions were succeeded.
-     * Even one transaction was rollbacked, end hooks don't execute.
+     * Consecutive statements which have the same SQL text are executed by a {@code PreparedStatement#executeBatch()}
+     * just before the outermost transaction is committed, or earlier when the number of buffered statements
+     * reaches the batch limit. If the transaction is rollbacked, buffered statements are discarded without
+     * accessing the DB.
+     * <p>
+     * Statements are executed in the order in which they are added. Buffered statements are not visible to
+     * queries until they are flushed; call {@link #txnFlushBatch()} when the visibility matters.
      *
-     * @param r a processing for end hook
+     * @param sql        SQL to execute (e.g. INSERT or UPDATE statement)
+     * @param parameters parameters for placeholders, which are set by {@code PreparedStatement#setObject()}
+     * @throws SQLException if the buffer is flushed and it fails
      */
-    public void txnAddEndHook(Runnable r) {
-        endHooks.add(r);
+    public void txnAddBatch(String sql, Object... parameters) throws SQLException {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null");
+        }
+        if (depth == 0) {
+            throw new IllegalStateException("Tried to add a statement but there is no active transaction");
+        }
+
+        statementBatch.add(sql, parameters == null ? new Object[]{null} : parameters);
+        if (statementBatch.size() >= batchLimit) {
+            flushBatch();
+        }
     }
 
     /**
-     * Stack traced information of active transactions.
+     * Executes buffered statements which are added by {@link #txnAddBatch(String, Object...)} immediately.
      *
-     * @return a list of active transactions.
+     * @throws SQLException
      */
-    public List<TransactionTraceInfo> getActiveTransactions() {
-        return activeTransactions;
+    public void txnFlushBatch() throws SQLException {
+        flushBatch();
     }
 
     /**
-     * Stack traced information of current transactions.
+     * Sets the maximum number of statements to buffer by {@link #txnAddBatch(String, Object...)}.
      * <p>
-     * If current transaction doesn't exist, it returns {@code Optional.empty()}
-     * .
-     * </p>
+     * When the number of buffered statements reaches this, they are flushed. Default value is {@code 1000}.
      *
-     * @return a current activated transaction.
+     * @param batchLimit the maximum number of statements to buffer
      */
-    public Optional<TransactionTraceInfo> getCurrentTransaction() {
-        if (activeTransactions.isEmpty()) {
-            return Optional.empty();
+    public void setBatchLimit(int batchLimit) {
+        if (batchLimit <= 0) {
+            throw new IllegalArgumentException("batchLimit must be positive");
         }
+        this.batchLimit = batchLimit;
+    }
 
-        return Optional.of(activeTransactions.get(activeTransactions.size() - 1));
+    private void flushBatch() throws SQLException {
+        if (!statementBatch.isEmpty()) {
+            materialize();
+            queryCache.clear();
+            statementBatch.flush(connection);
+        }
     }
 
-    private void txnEnd() throws SQLException {
-        /*
-         * turn back to original auto-commit mode
-         */
-        connection.setAutoCommit(originalAutoCommitStatus);
+    /**
+     * Sets whether transactions begin lazily.
+     * <p>
+     * If it is enabled, {@link #txnBegin()} doesn't access the DB. The transaction actually begins
+     * (i.e. auto commit mode is disabled, and savepoints of nested transactions are taken) when the first
+     * statement is prepared or created through the connection which is returned by {@link #getConnection()},
+     * or when buffered statements are flushed. Commit and rollback of a transaction which didn't access the DB
+     * don't issue any JDBC call. In {@code DataSource} mode, a connection is not borrowed for such a transaction.
+     * <p>
+     * In this mode, {@link #getConnection()} returns a wrapper of the connection, and the DB must be accessed
+     * through it.
+     *
+     * @param lazyBeginEnabled whether transactions begin lazily
+     * @throws IllegalStateException if a transaction is active
+     */
+    public void setLazyBeginEnabled(boolean lazyBeginEnabled) {
+        if (depth > 0) {
+            throw new IllegalStateException("Tried to change lazy begin mode but a transaction is active");
+        }
+        this.lazyBeginEnabled = lazyBeginEnabled;
+    }
 
-        activeTransactions = new ArrayList<>();
-        rollbackedInNestedTransaction = 0;
+    /**
+     * Whether a transaction is active but it has not began on the connection yet.
+     */
+    boolean isBeginPending() {
+        return !materialized && depth > 0;
+    }
+
+    /**
+     * Begins the transaction on the connection if it has not began yet, and takes pending savepoints.
+     */
+    void materialize() throws SQLException {
+        if (materialized) {
+            return;
+        }
+
+        beginOnConnection();
+        for (int i = 1; i < depth; i++) {
+            TransactionFrame frame = frames[i];
+            if (frame.savepointRequested && frame.savepoint == null) {
+                frame.savepoint = connection.setSavepoint();
+            }
+        }
+    }
+
+    private void beginOnConnection() throws SQLException {
+        borrowConnection();
+        try {
+            Boolean originalAutoCommitStatus = this.originalAutoCommitStatus;
+            if (originalAutoCommitStatus == null) {
+                originalAutoCommitStatus = connectionState.getAutoCommit();
+            }
+
+            // read-only mode cannot be changed in a transaction
+            if (requestedReadOnly != null) {
+                boolean originalReadOnlyStatus = connectionState.isReadOnly();
+                connectionState.setReadOnly(requestedReadOnly);
+                this.originalReadOnlyStatus = originalReadOnlyStatus;
+            }
+            if (requestedIsolationLevel != null) {
+                int originalIsolationLevel = connectionState.getTransactionIsolation();
+                connectionState.setTransactionIsolation(requestedIsolationLevel);
+                this.originalIsolationLevel = originalIsolationLevel;
+            }
+
+            connectionState.setAutoCommit(false); // Enable transaction
+            this.originalAutoCommitStatus = originalAutoCommitStatus;
+        } catch (SQLException e) {
+            try {
+                restoreConnectionSettings();
+            } catch (SQLException restoreError) {
+                e.addSuppressed(restoreError);
+            }
+            returnConnectionOnFailedBegin(e);
+            throw e;
+        }
+        materialized = true;
+    }
+
+    /**
+     * Restores the settings of the connection which were changed for the transaction (except auto commit mode).
+     */
+    private void restoreConnectionSettings() throws SQLException {
+        Boolean originalReadOnlyStatus = this.originalReadOnlyStatus;
+        Integer originalIsolationLevel = this.originalIsolationLevel;
+        this.originalReadOnlyStatus = null;
+        this.originalIsolationLevel = null;
+
+        SQLException error = null;
+        if (originalIsolationLevel != null) {
+            try {
+                connectionState.setTransactionIsolation(originalIsolationLevel);
+            } catch (SQLException e) {
+                error = e;
+            }
+        }
+        if (originalReadOnlyStatus != null) {
+            try {
+                connectionState.setReadOnly(originalReadOnlyStatus);
+            } catch (SQLException e) {
+                error = chain(error, e);
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Checks the isolation level which is requested by a nested transaction.
+     * <p>
+     * If the outermost transaction didn't specify a level and it has not began on the connection yet
+     * (in lazy begin mode), the requested level is applied to the whole transaction.
+     */
+    private void checkNestedIsolationLevel(int isolationLevel) throws SQLException {
+        if (requestedIsolationLevel == null) {
+            if (!materialized) {
+                requestedIsolationLevel = isolationLevel;
+                return;
+            }
+            if (connectionState.getTransactionIsolation() == isolationLevel) {
+                return;
+            }
+        } else if (requestedIsolationLevel == isolationLevel) {
+            return;
+        }
+
+        throw new IllegalStateException(
+                "Tried to begin a nested transaction with a different isolation level from the outer transaction");
+    }
+
+    /**
+     * Sets the data source of replica for read-only transactions.
+     * <p>
+     * If it is set, the outermost transaction which is began with {@link TransactionOptions#getReadOnly()}
+     * borrows a connection from the replica instead of the primary data source.
+     * This is available only for the manager which is created by {@link #fromDataSource(DataSource)}.
+     *
+     * @param replicaDataSource a data source of replica, or {@code null} to disable routing
+     * @throws IllegalStateException if this manager doesn't use {@code DataSource}
+     */
+    public void setReplicaDataSource(DataSource replicaDataSource) {
+        if (dataSource == null) {
+            throw new IllegalStateException("Replica is available only for the manager which uses DataSource");
+        }
+        this.replicaDataSource = replicaDataSource;
+    }
+
+    /**
+     * Executes the body in a transaction, and retries it when it failed with a retryable error.
+     * <p>
+     * The body is executed between {@link #txnBegin()} and {@link #txnCommit()}. If it throws an exception,
+     * the transaction is rollbacked. When the exception is retryable according to {@code retryPolicy}
+     * (e.g. a deadlock), the whole transaction is executed again after backoff.
+     * <p>
+     * If a transaction is already active, the body joins it as a nested transaction and is not retried,
+     * because a transient error (like a deadlock) breaks the outer transaction too.
+     *
+     * @param body        a processing to execute in a transaction
+     * @param retryPolicy a policy to retry
+     * @param <T>         the result type of body
+     * @return the result of body.
+     * @throws SQLException the last error if the body failed with a non-retryable error or attempts are exhausted
+     */
+    public <T> T execute(SqlCallable<T> body, RetryPolicy retryPolicy) throws SQLException {
+        if (body == null) {
+            throw new IllegalArgumentException("body must not be null");
+        }
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("retryPolicy must not be null");
+        }
+
+        if (depth > 0) {
+            return executeInTransaction(body);
+        }
+
+        RetryMetrics metrics = retryPolicy.getMetrics();
+        metrics.recordExecution();
+        for (int attempt = 1; ; attempt++) {
+            metrics.recordAttempt();
+            try {
+                T result = executeInTransaction(body);
+                if (attempt > 1) {
+                    metrics.recordRecovered();
+                }
+                return result;
+            } catch (SQLException e) {
+                if (!retryPolicy.isRetryable(e)) {
+                    metrics.recordFatalFailure();
+                    throw e;
+                }
+                if (attempt >= retryPolicy.getMaxAttempts()) {
+                    metrics.recordExhausted();
+                    throw e;
+                }
+
+                long backoffMillis = retryPolicy.computeBackoffMillis(attempt);
+                log.debug("Retry a transaction after {} ms (attempt {}): {}", backoffMillis, attempt, e.toString());
+                metrics.recordRetry(TimeUnit.MILLISECONDS.toNanos(backoffMillis));
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    e.addSuppressed(ie);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private <T> T executeInTransaction(SqlCallable<T> body) throws SQLException {
+        txnBegin(TransactionOptions.defaults());
+        int bodyDepth = depth;
+
+        T result;
+        try {
+            result = body.call();
+        } catch (SQLException | RuntimeException | Error e) {
+            rollbackBody(bodyDepth, e);
+            throw e;
+        }
+
+        commitBody(bodyDepth);
+        return result;
+    }
+
+    /**
+     * Applies the body in a transaction which joins the current transaction (if any).
+     * <p>
+     * This is the same as {@code inTransaction(Propagation.REQUIRED, body)}.
+     *
+     * @param body a processing to apply in a transaction
+     * @param <T>  the result type of body
+     * @return the result of body.
+     * @throws SQLException
+     */
+    public <T> T inTransaction(SqlFunction<T> body) throws SQLException {
+        return inTransaction(Propagation.REQUIRED, body);
+    }
+
+    /**
+     * Applies the body in a transaction with the propagation.
+     * <p>
+     * The body receives the connection of the transaction. If it returns normally, the transaction is committed;
+     * if it throws an exception, the transaction is rollbacked and the exception is rethrown. This doesn't
+     * allocate a scope object, so it can be used on hot paths.
+     *
+     * @param propagation how the transaction behaves when a transaction is already active
+     * @param body        a processing to apply in a transaction
+     * @param <T>         the result type of body
+     * @return the result of body.
+     * @throws SQLException
+     * @throws IllegalStateException if {@link Propagation#REQUIRES_NEW} is requested but a new connection is not
+     *                               available
+     */
+    public <T> T inTransaction(Propagation propagation, SqlFunction<T> body) throws SQLException {
+        if (propagation == null) {
+            throw new IllegalArgumentException("propagation must not be null");
+        }
+        if (body == null) {
+            throw new IllegalArgumentException("body must not be null");
+        }
+
+        if (propagation == Propagation.REQUIRES_NEW) {
+            return inNewTransaction(body);
+        }
+        return applyInTransaction(propagation == Propagation.NESTED ? NESTED_OPTIONS : TransactionOptions.defaults(),
+                body);
+    }
+
+    private <T> T applyInTransaction(TransactionOptions options, SqlFunction<T> body) throws SQLException {
+        txnBegin(options);
+        int bodyDepth = depth;
+
+        T result;
+        try {
+            result = body.apply(getConnection());
+        } catch (SQLException | RuntimeException | Error e) {
+            rollbackBody(bodyDepth, e);
+            throw e;
+        }
+
+        commitBody(bodyDepth);
+        return result;
+    }
+
+    private <T> T inNewTransaction(SqlFunction<T> body) throws SQLException {
+        SqlCallable<Connection> factory = newConnectionFactory;
+        if (factory == null) {
+            if (dataSource == null) {
+                throw new IllegalStateException(
+                        "Tried to begin a new transaction but newConnectionFactory is not set");
+            }
+            factory = dataSource::getConnection;
+        }
+
+        try (Connection newConnection = factory.call()) {
+            if (newConnection == null) {
+                throw new IllegalStateException("newConnectionFactory returned null");
+            }
+
+            TransactionManager manager = new TransactionManager(newConnection);
+            manager.callSiteCapture = callSiteCapture;
+            manager.savepointEnabled = savepointEnabled;
+            manager.batchLimit = batchLimit;
+            manager.endHookDispatcher = endHookDispatcher;
+            manager.listeners = listeners;
+            return manager.applyInTransaction(TransactionOptions.defaults(), body);
+        }
+    }
+
+    /**
+     * Commits the transaction of the body. If the commit fails without ending the transaction
+     * (e.g. a nested transaction has been rollbacked), the transaction of the body is rollbacked.
+     */
+    private void commitBody(int bodyDepth) throws SQLException {
+        try {
+            txnCommit();
+        } catch (SQLException | RuntimeException e) {
+            rollbackBody(bodyDepth, e);
+            throw e;
+        }
+    }
+
+    private void rollbackBody(int bodyDepth, Throwable bodyError) {
+        if (depth < bodyDepth) {
+            return;
+        }
+        try {
+            while (depth >= bodyDepth) {
+                txnRollback();
+            }
+        } catch (SQLException rollbackError) {
+            bodyError.addSuppressed(rollbackError);
+        }
+    }
+
+    /**
+     * Sets the factory of connections for {@link Propagation#REQUIRES_NEW}.
+     * <p>
+     * A connection is created for each new transaction and closed when the transaction is end. If this is
+     * {@code null} (default), the manager which uses {@code DataSource} borrows a connection from it, and the
+     * other manager rejects {@link Propagation#REQUIRES_NEW}.
+     * <p>
+     * A new transaction runs on a separate manager which inherits call site capture, savepoint mode, batch limit,
+     * end hook dispatcher and listeners of this manager.
+     *
+     * @param newConnectionFactory a factory of connections, or {@code null}
+     */
+    public void setNewConnectionFactory(SqlCallable<Connection> newConnectionFactory) {
+        this.newConnectionFactory = newConnectionFactory;
+    }
+
+    /**
+     * Applies the body in a transaction on the executor (e.g. a dedicated executor for JDBC).
+     * <p>
+     * The transaction runs on this manager and its connection in the task, as
+     * {@link #inTransaction(SqlFunction)} does, and it is attributed to the call site of this method rather than
+     * the executor's thread. The future is completed with the result of body after
+     * commit, or exceptionally with the error after rollback. End hooks which were registered in the transaction
+     * run after the future is completed, so dependent stages don't wait for them.
+     * <p>
+     * This manager must not be used on other threads until the future is completed; a single-thread executor
+     * for each manager serializes transactions naturally. To run transactions on a pool of threads,
+     * use {@link TransactionContext#executeAsync(Executor, SqlFunction)} which gives each thread its own manager.
+     *
+     * @param executor an executor to run the transaction
+     * @param body     a processing to apply in a transaction
+     * @param <T>      the result type of body
+     * @return the future of the result of body. If the executor rejects the task, it is completed exceptionally
+     * with {@code RejectedExecutionException}.
+     */
+    public <T> CompletableFuture<T> executeAsync(Executor executor, SqlFunction<T> body) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        if (body == null) {
+            throw new IllegalArgumentException("body must not be null");
+        }
+
+        StackTraceElement callSite = callSiteCapture.capture();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> completeInTransaction(future, body, callSite));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Applies the body in a transaction which is attributed to the call site, and completes the future before
+     * running end hooks.
+     */
+    <T> void completeInTransaction(CompletableFuture<T> future, SqlFunction<T> body, StackTraceElement callSite) {
+        T result;
+        List<Runnable> hooks;
+        try {
+            txnBegin(null, TransactionOptions.defaults(), callSite);
+            int bodyDepth = depth;
+            try {
+                result = body.apply(getConnection());
+            } catch (SQLException | RuntimeException | Error e) {
+                rollbackBody(bodyDepth, e);
+                throw e;
+            }
+
+            // end hooks of the outer transaction (if any) belong to it
+            hooks = bodyDepth == 1 ? takeEndHooks() : Collections.emptyList();
+            commitBody(bodyDepth);
+        } catch (SQLException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            return;
+        }
+
+        future.complete(result);
+        try {
+            runHooks(hooks);
+        } catch (RuntimeException e) {
+            log.warn("End hook of asynchronous transaction failed: " + e.toString());
+        }
+    }
+
+    /**
+     * Add an end hook for transaction.
+     * <p>
+     * Registered end hooks run only when all of transactions were succeeded.
+     * Even one transaction was rollbacked, end hooks don't execute.
+     * End hooks stay registered and run on every commit of the outermost transaction, unless one-shot end hooks
+     * are enabled by {@link #setOneShotEndHooksEnabled(boolean)}.
+     *
+     * @param r a processing for end hook
+     */
+    public void txnAddEndHook(Runnable r) {
+        endHooks.add(r);
+    }
+
+    /**
+     * Add a rollback hook for transaction.
+     * <p>
+     * Registered rollback hooks run only when the outermost transaction was rollbacked
+     * (or the nested transaction which has a savepoint was rollbacked to the savepoint).
+     * Rollback hooks are discarded when the outermost transaction is end, so they run at most once.
+     *
+     * @param r a processing for rollback hook
+     */
+    public void txnAddRollbackHook(Runnable r) {
+        rollbackHooks.add(r);
+    }
+
+    /**
+     * Add a key to the batch hook for transaction.
+     * <p>
+     * When all of transactions were succeeded, the handler of the batch hook runs once with the deduplicated keys
+     * which were added in the transaction, after end hooks. Keys are discarded when the transaction is rollbacked
+     * (keys which were added in a nested transaction are discarded when it is rollbacked to its savepoint).
+     * See {@link BatchHook}.
+     *
+     * @param hook a batch hook
+     * @param key  a key to handle after commit
+     * @param <K>  the type of keys
+     */
+    public <K> void txnAddBatchHook(BatchHook<K> hook, K key) {
+        if (hook == null) {
+            throw new IllegalArgumentException("hook must not be null");
+        }
+        batchHookKeys.add(hook, key);
+    }
+
+    /**
+     * Sets the dispatcher to run end hooks and rollback hooks.
+     * <p>
+     * If the dispatcher is {@code null} (default), hooks run synchronously on the thread which ends the
+     * transaction, and an exception of a hook is propagated to the caller (so subsequent hooks don't run).
+     *
+     * @param endHookDispatcher a dispatcher to run hooks, or {@code null}
+     */
+    public void setEndHookDispatcher(EndHookDispatcher endHookDispatcher) {
+        this.endHookDispatcher = endHookDispatcher;
+    }
+
+    /**
+     * Sets whether end hooks are discarded when the outermost transaction is end.
+     * <p>
+     * If it is enabled, end hooks belong to the transaction in which they are added; they run at most once
+     * on its commit and they are discarded on its rollback. If it is disabled (default), registered end hooks
+     * stay registered and run on every commit of the outermost transaction, as before.
+     *
+     * @param oneShotEndHooksEnabled whether end hooks are discarded when the outermost transaction is end
+     */
+    public void setOneShotEndHooksEnabled(boolean oneShotEndHooksEnabled) {
+        this.oneShotEndHooksEnabled = oneShotEndHooksEnabled;
+    }
+
+    private List<Runnable> takeEndHooksOnCommit() {
+        if (oneShotEndHooksEnabled) {
+            return drainHooks(endHooks);
+        }
+        int from = Math.min(takenEndHooks, endHooks.size());
+        if (from == endHooks.size()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(endHooks.subList(from, endHooks.size()));
+    }
+
+    private void discardEndHooksOnRollback() {
+        if (oneShotEndHooksEnabled) {
+            endHooks.clear();
+        }
+    }
+
+    private static List<Runnable> drainHooks(List<Runnable> hooks) {
+        if (hooks.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Runnable> drained = new ArrayList<>(hooks);
+        hooks.clear();
+        return drained;
+    }
+
+    private List<Runnable> drainCommitHooks() {
+        List<Runnable> hooks = takeEndHooksOnCommit();
+        boolean publishing = queryCachePublisher != null && queryCache.size() > 0;
+        if (batchHookKeys.isEmpty() && !publishing) {
+            return hooks;
+        }
+
+        if (hooks.isEmpty()) {
+            hooks = new ArrayList<>();
+        }
+        hooks.addAll(batchHookKeys.drain());
+        if (publishing) {
+            hooks.add(queryCache.drain(queryCachePublisher));
+        }
+        return hooks;
+    }
+
+    private void runHooks(List<Runnable> hooks) {
+        if (hooks.isEmpty()) {
+            return;
+        }
+
+        long startedAt = listeners.length > 0 ? System.nanoTime() : 0;
+        try {
+            if (endHookDispatcher == null) {
+                hooks.forEach(java.lang.Runnable::run);
+            } else {
+                endHookDispatcher.dispatch(hooks);
+            }
+        } finally {
+            if (listeners.length > 0) {
+                long elapsedNanos = System.nanoTime() - startedAt;
+                for (TransactionListener listener : listeners) {
+                    listener.onEndHooks(this, hooks.size(), elapsedNanos);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a listener of events of transactions.
+     * <p>
+     * Listeners are called synchronously in the order of registration. Don't add or remove listeners
+     * while a transaction is active.
+     *
+     * @param listener a listener to add
+     */
+    public void addTransactionListener(TransactionListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+
+        TransactionListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        listeners = newListeners;
+    }
+
+    /**
+     * Removes a listener of events of transactions.
+     *
+     * @param listener a listener to remove
+     * @return {@code true} if the listener was registered.
+     */
+    public boolean removeTransactionListener(TransactionListener listener) {
+        List<TransactionListener> newListeners = new ArrayList<>(Arrays.asList(listeners));
+        boolean removed = newListeners.remove(listener);
+        listeners = newListeners.toArray(new TransactionListener[newListeners.size()]);
+        return removed;
+    }
+
+    private void fireRollback(StackTraceElement callSite, long beganAt) {
+        if (listeners.length > 0) {
+            long durationNanos = System.nanoTime() - beganAt;
+            for (TransactionListener listener : listeners) {
+                listener.onRollback(this, callSite, durationNanos);
+            }
+        }
+    }
+
+    /**
+     * Sets the strategy to capture the call site which begins a transaction.
+     * <p>
+     * Default strategy is {@link CallSiteCapture#full()}. Capturing call site is the most expensive part
+     * of beginning a transaction, so use {@link CallSiteCapture#sampled(int)} or {@link CallSiteCapture#off()}
+     * on hot paths.
+     *
+     * @param callSiteCapture a strategy to capture call site
+     */
+    public void setCallSiteCapture(CallSiteCapture callSiteCapture) {
+        if (callSiteCapture == null) {
+            throw new IllegalArgumentException("callSiteCapture must not be null");
+        }
+        this.callSiteCapture = callSiteCapture;
+    }
+
+    /**
+     * Sets whether every nested transaction takes a savepoint.
+     * <p>
+     * If it is enabled, rollback of a nested transaction rollbacks only to its savepoint and
+     * doesn't make the outer transaction fail. Otherwise (default), only nested transactions
+     * which are began with {@link TransactionOptions#isSavepoint()} take a savepoint.
+     *
+     * @param savepointEnabled whether every nested transaction takes a savepoint
+     */
+    public void setSavepointEnabled(boolean savepointEnabled) {
+        this.savepointEnabled = savepointEnabled;
+    }
+
+    /**
+     * Sets whether the manager keeps the local view of the state of the connection across transactions.
+     * <p>
+     * The manager always knows the state of the connection while a transaction is active, so it doesn't
+     * issue JDBC calls which don't change anything (e.g. {@code setAutoCommit(false)} on a connection which is
+     * not in auto commit mode). If this is enabled, the manager also keeps the state after the transaction is end,
+     * so subsequent transactions skip asking the connection for it.
+     * <p>
+     * Don't change auto commit mode, read only mode or transaction isolation level of the connection
+     * directly while this is enabled, or call {@link #invalidateConnectionState()} after that.
+     * <p>
+     * In {@code DataSource} mode, the state is always forgotten when a connection is borrowed.
+     *
+     * @param connectionStateCacheEnabled whether the manager keeps the state of the connection
+     */
+    public void setConnectionStateCacheEnabled(boolean connectionStateCacheEnabled) {
+        this.connectionStateCacheEnabled = connectionStateCacheEnabled;
+        if (!connectionStateCacheEnabled && depth == 0) {
+            connectionState.invalidate();
+        }
+    }
+
+    /**
+     * Forgets the local view of the state of the connection.
+     * <p>
+     * Call this after changing auto commit mode, read only mode or transaction isolation level of
+     * the connection directly.
+     */
+    public void invalidateConnectionState() {
+        connectionState.invalidate();
+    }
+
+    /**
+     * Stack traced information of active transactions.
+     * <p>
+     * The list is a snapshot at the time of the call; it doesn't reflect subsequent begins and ends,
+     * and modifying it doesn't affect this manager.
+     *
+     * @return a list of active transactions.
+     */
+    public List<TransactionTraceInfo> getActiveTransactions() {
+        List<TransactionTraceInfo> traceInfos = new ArrayList<>(depth);
+        for (int i = 0; i < depth; i++) {
+            traceInfos.add(frames[i].getTraceInfo());
+        }
+        return traceInfos;
+    }
+
+    /**
+     * Stack traced information of current transactions.
+     * <p>
+     * If current transaction doesn't exist, it returns {@code Optional.empty()}
+     * .
+     * </p>
+     *
+     * @return a current activated transaction.
+     */
+    public Optional<TransactionTraceInfo> getCurrentTransaction() {
+        if (depth == 0) {
+            return Optional.empty();
+        }
+
+        return Optional.of(frames[depth - 1].getTraceInfo());
+    }
+
+    private void rollbackOnFailedCommit(StackTraceElement callSite, long beganAt, SQLException commitError) {
+        List<Runnable> hooks = drainHooks(rollbackHooks);
+        discardEndHooksOnRollback();
+        batchHookKeys.clear();
+
+        try {
+            if (materialized) {
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            commitError.addSuppressed(e);
+        }
+
+        try {
+            txnEnd();
+        } catch (SQLException e) {
+            commitError.addSuppressed(e);
+        }
+
+        fireRollback(callSite, beganAt);
+
+        try {
+            runHooks(hooks);
+        } catch (RuntimeException e) {
+            commitError.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Sets the tracer of statements, which makes {@link #getConnection()} return an instrumented connection.
+     * See {@link StatementTracer}.
+     *
+     * @param statementTracer a tracer of statements, or {@code null} to disable tracing (default)
+     * @throws IllegalStateException if a transaction is active
+     */
+    public void setStatementTracer(StatementTracer statementTracer) {
+        if (depth > 0) {
+            throw new IllegalStateException("Tried to change statement tracer but a transaction is active");
+        }
+        this.statementTracer = statementTracer;
+        tracedTarget = null;
+        tracingConnection = null;
+    }
+
+    /**
+     * Statements which were executed in the current transaction (including finished nested transactions),
+     * aggregated by fingerprint. Statements are recorded only if a statement tracer is set.
+     *
+     * @return statements in the order of first execution, or an empty list if there is no active transaction.
+     */
+    public List<StatementStats> getCurrentStatements() {
+        if (depth == 0 || frames[depth - 1].statementLog == null) {
+            return Collections.emptyList();
+        }
+        return frames[depth - 1].statementLog.snapshot();
+    }
+
+    /**
+     * Records an executed statement on the current transaction.
+     *
+     * @return the record of statements of the fingerprint, or {@code null} if it was not recorded.
+     */
+    StatementLog.Entry recordStatement(String fingerprint, long nanos, long rows) {
+        StatementTracer statementTracer = this.statementTracer;
+        if (statementTracer == null || depth == 0) {
+            return null;
+        }
+
+        TransactionFrame frame = frames[depth - 1];
+        if (frame.statementLog == null) {
+            frame.statementLog = new StatementLog();
+        }
+        StatementLog.Entry entry = frame.statementLog.entry(fingerprint, statementTracer.getMaxFingerprints());
+        entry.record(nanos, rows);
+        return entry;
+    }
+
+    /**
+     * Sets whether results of {@link #txnQuery(String, ResultSetMapper, Object...)} are cached in the outermost
+     * transaction.
+     * <p>
+     * If it is enabled, a query which has the same SQL, parameters and mapper as a query which was executed
+     * in the current transaction (including nested transactions) returns the cached result without accessing the DB.
+     * The cache is cleared as a whole when the transaction is end, when a nested transaction is rollbacked and
+     * when something is written: a statement other than {@code executeQuery()} is executed through the connection
+     * which is returned by {@link #getConnection()} (which is a wrapper in this mode), or statements which are added
+     * by {@link #txnAddBatch(String, Object...)} are flushed. Writes through other connections are not detected;
+     * call {@link #invalidateQueryCache()} for them.
+     * <p>
+     * Cached results are shared by callers, so they should not be modified.
+     *
+     * @param queryCacheEnabled whether results of queries are cached
+     * @throws IllegalStateException if a transaction is active
+     */
+    public void setQueryCacheEnabled(boolean queryCacheEnabled) {
+        if (depth > 0) {
+            throw new IllegalStateException("Tried to change query cache mode but a transaction is active");
+        }
+        this.queryCacheEnabled = queryCacheEnabled;
+    }
+
+    /**
+     * Sets the publisher which receives results of queries which are cached when the outermost transaction is
+     * committed. It runs as an end hook after other end hooks.
+     *
+     * @param queryCachePublisher a publisher, or {@code null} (default)
+     */
+    public void setQueryCachePublisher(QueryCachePublisher queryCachePublisher) {
+        this.queryCachePublisher = queryCachePublisher;
+    }
+
+    /**
+     * Executes a query through the connection of this manager and maps its result set.
+     * <p>
+     * If query cache is enabled and a transaction is active, the result is read through the cache of the
+     * transaction. See {@link #setQueryCacheEnabled(boolean)}. Mappers are part of the key of the cache, so
+     * they should be reused (e.g. constants, method references or lambdas which capture nothing).
+     *
+     * @param sql        SQL of the query
+     * @param mapper     a mapper of the result set
+     * @param parameters parameters of the query
+     * @param <T>        the type of the result
+     * @return the mapped result.
+     * @throws SQLException
+     */
+    public <T> T txnQuery(String sql, ResultSetMapper<T> mapper, Object... parameters) throws SQLException {
+        if (sql == null) {
+            throw new IllegalArgumentException("sql must not be null");
+        }
+        if (mapper == null) {
+            throw new IllegalArgumentException("mapper must not be null");
+        }
+        if (parameters == null) {
+            parameters = new Object[]{null};
+        }
+
+        boolean caching = queryCacheEnabled && depth > 0;
+        if (caching) {
+            Object cached = queryCache.get(sql, mapper, parameters);
+            if (cached != null) {
+                @SuppressWarnings("unchecked")
+                T result = (T) QueryCache.unwrap(cached);
+                return result;
+            }
+        }
+
+        T result;
+        try (PreparedStatement preparedStatement = getConnection().prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                preparedStatement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                result = mapper.map(resultSet);
+            }
+        }
+
+        if (caching) {
+            queryCache.put(sql, mapper, parameters, result);
+        }
+        return result;
+    }
+
+    /**
+     * Clears the query cache of the current transaction, e.g. after writing through another connection.
+     */
+    public void invalidateQueryCache() {
+        queryCache.clear();
+    }
+
+    /**
+     * Adds statements of the popped frame to the outer transaction, or reports them if the outermost transaction
+     * was slow.
+     */
+    private void finishStatements(TransactionFrame frame) {
+        if (statementTracer == null || frame.statementLog == null || frame.statementLog.isEmpty()) {
+            return;
+        }
+
+        if (depth > 0) {
+            TransactionFrame outer = frames[depth - 1];
+            if (outer.statementLog == null) {
+                outer.statementLog = new StatementLog();
+            }
+            frame.statementLog.mergeInto(outer.statementLog, statementTracer.getMaxFingerprints());
+            return;
+        }
+        statementTracer.reportIfSlow(frame.getTraceInfo(), System.nanoTime() - frame.beganAt, frame.statementLog);
+    }
+
+    private TransactionFrame pushFrame() {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        TransactionFrame frame = frames[depth];
+        if (frame == null) {
+            frame = new TransactionFrame();
+            frames[depth] = frame;
+        }
+        depth++;
+        return frame;
+    }
+
+    /**
+     * Starts publishing the outermost transaction for a watchdog. A transaction which is already active is
+     * published from the next one.
+     */
+    void addWatcher() {
+        watchers.incrementAndGet();
+    }
+
+    /**
+     * Stops publishing the outermost transaction for a watchdog.
+     */
+    void removeWatcher() {
+        if (watchers.decrementAndGet() == 0) {
+            synchronized (abortLock) {
+                watchedTransaction = null;
+            }
+        }
+    }
+
+    /**
+     * The outermost transaction which is published for watchdogs. This can be called from other threads.
+     *
+     * @return the outermost transaction, or {@code null} if there is no active transaction or this manager
+     * is not watched.
+     */
+    WatchedTransaction getWatchedTransaction() {
+        return watchedTransaction;
+    }
+
+    /**
+     * Aborts the connection if the transaction is still running. This can be called from other threads.
+     * <p>
+     * The outermost transaction never ends while its connection is being aborted, so the connection is never aborted
+     * after the transaction has ended (e.g. while it is reused by another transaction or returned to a pool).
+     *
+     * @param transaction the outermost transaction to abort, which is published by {@link #getWatchedTransaction()}
+     * @param executor the executor which is passed to {@code Connection#abort(Executor)}
+     * @return whether the connection was aborted; {@code false} if the transaction has already ended
+     *         or it has not borrowed a connection yet
+     * @throws SQLException if {@code Connection#abort(Executor)} fails
+     */
+    boolean abortOutermostTransaction(WatchedTransaction transaction, Executor executor) throws SQLException {
+        synchronized (abortLock) {
+            Connection current = connection;
+            if (transaction == null || watchedTransaction != transaction || current == null) {
+                return false;
+            }
+            current.abort(executor);
+            return true;
+        }
+    }
+
+    /**
+     * The depth of the current transaction; {@code 0} means there is no active transaction.
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Takes end hooks and batch hooks which have been registered, so they don't run on commit of the current
+     * transaction. Unless one-shot end hooks are enabled, end hooks stay registered for subsequent transactions.
+     */
+    List<Runnable> takeEndHooks() {
+        List<Runnable> hooks = drainCommitHooks();
+        takenEndHooks = endHooks.size();
+        return hooks;
+    }
+
+    /**
+     * The connection which is not wrapped for lazy begin mode. This can be called from other threads.
+     *
+     * @return the connection, or {@code null} if a connection is not borrowed from {@code DataSource}.
+     */
+    Connection getPhysicalConnection() {
+        return connection;
+    }
+
+    private void borrowConnection() throws SQLException {
+        if (dataSource == null || connection != null) {
+            return;
+        }
+
+        DataSource source = dataSource;
+        if (replicaDataSource != null && Boolean.TRUE.equals(requestedReadOnly)) {
+            source = replicaDataSource;
+        }
+
+        Connection borrowed = source.getConnection();
+        if (borrowed == null) {
+            throw new IllegalStateException("dataSource returned null");
+        }
+        connection = borrowed;
+        connectionState.reset(borrowed);
+    }
+
+    private void returnConnection() throws SQLException {
+        if (dataSource == null || connection == null) {
+            return;
+        }
+
+        Connection borrowed = connection;
+        connection = null;
+        borrowed.close();
+    }
+
+    private void returnConnectionOnFailedBegin(SQLException beginError) {
+        try {
+            returnConnection();
+        } catch (SQLException e) {
+            beginError.addSuppressed(e);
+        }
+    }
+
+    private void txnEnd() throws SQLException {
+        depth = 0;
+        if (watchedTransaction != null) {
+            synchronized (abortLock) {
+                watchedTransaction = null;
+            }
+        }
+        rollbackedInNestedTransaction = 0;
+        takenEndHooks = 0;
+        statementBatch.clear();
+        queryCache.clear();
+        requestedReadOnly = null;
+        requestedIsolationLevel = null;
+
+        if (!materialized) {
+            return; // the transaction didn't access the DB
+        }
+        materialized = false;
+
+        SQLException error = null;
+        try {
+            /*
+             * turn back to original auto-commit mode
+             */
+            connectionState.setAutoCommit(originalAutoCommitStatus);
+        } catch (SQLException e) {
+            error = e;
+        }
+
+        try {
+            restoreConnectionSettings();
+        } catch (SQLException e) {
+            error = chain(error, e);
+        }
+
+        if (!connectionStateCacheEnabled) {
+            connectionState.invalidate();
+        }
+
+        try {
+            returnConnection();
+        } catch (SQLException e) {
+            error = chain(error, e);
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static SQLException chain(SQLException error, SQLException next) {
+        if (error == null) {
+            return next;
+        }
+        error.addSuppressed(next);
+        return error;
     }
 }
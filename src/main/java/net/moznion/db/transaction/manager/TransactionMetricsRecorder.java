@@ -0,0 +1,91 @@
+package net.moznion.db.transaction.manager;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@link TransactionListener} which records metrics of transactions.
+ * <p>
+ * It records the number of transactions, latency histograms (duration of the outermost transaction,
+ * {@code Connection#commit()} and end hooks) and the histogram of depth of nested transactions.
+ * Recording doesn't allocate and is lock-free, so one recorder can be shared among transaction managers
+ * on many threads. {@link #snapshot()} can be called from a monitoring thread at any time.
+ *
+ * @author moznion
+ */
+public class TransactionMetricsRecorder implements TransactionListener {
+    /**
+     * The maximum depth which is distinguished in the depth histogram; deeper transactions are counted
+     * in the last bucket.
+     */
+    public static final int MAX_TRACKED_DEPTH = 32;
+
+    private final LongAdder begins = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+    private final LongAdder nestedRollbacks = new LongAdder();
+    private final LongAdder endHooks = new LongAdder();
+
+    private final LatencyHistogram durationHistogram = new LatencyHistogram();
+    private final LatencyHistogram commitHistogram = new LatencyHistogram();
+    private final LatencyHistogram endHooksHistogram = new LatencyHistogram();
+    private final LongAdder[] depthHistogram;
+
+    /**
+     * Constructs an empty recorder.
+     */
+    public TransactionMetricsRecorder() {
+        depthHistogram = new LongAdder[MAX_TRACKED_DEPTH + 1];
+        for (int i = 0; i < depthHistogram.length; i++) {
+            depthHistogram[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void onBegin(TransactionManager manager, int depth, StackTraceElement callSite) {
+        begins.increment();
+        depthHistogram[Math.min(depth, MAX_TRACKED_DEPTH)].increment();
+    }
+
+    @Override
+    public void onCommit(TransactionManager manager, StackTraceElement callSite, long commitNanos,
+                         long durationNanos) {
+        commits.increment();
+        commitHistogram.record(commitNanos);
+        durationHistogram.record(durationNanos);
+    }
+
+    @Override
+    public void onRollback(TransactionManager manager, StackTraceElement callSite, long durationNanos) {
+        rollbacks.increment();
+        durationHistogram.record(durationNanos);
+    }
+
+    @Override
+    public void onNestedRollback(TransactionManager manager, StackTraceElement callSite, int depth) {
+        nestedRollbacks.increment();
+    }
+
+    @Override
+    public void onEndHooks(TransactionManager manager, int count, long elapsedNanos) {
+        endHooks.add(count);
+        endHooksHistogram.record(elapsedNanos);
+    }
+
+    /**
+     * Takes a snapshot of recorded metrics.
+     * <p>
+     * Each value is read independently, so the snapshot is not atomic while transactions are running.
+     *
+     * @return a snapshot.
+     */
+    public TransactionMetricsSnapshot snapshot() {
+        long[] depthCounts = new long[depthHistogram.length];
+        for (int i = 0; i < depthCounts.length; i++) {
+            depthCounts[i] = depthHistogram[i].sum();
+        }
+
+        return new TransactionMetricsSnapshot(begins.sum(), commits.sum(), rollbacks.sum(), nestedRollbacks.sum(),
+                endHooks.sum(), durationHistogram.snapshot(), commitHistogram.snapshot(),
+                endHooksHistogram.snapshot(), depthCounts);
+    }
+}
@@ -0,0 +1,104 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable snapshot of metrics which are recorded by {@link TransactionMetricsRecorder}.
+ *
+ * @author moznion
+ */
+@Getter
+public class TransactionMetricsSnapshot {
+    /**
+     * The number of began transactions, including nested ones.
+     */
+    private final long begins;
+
+    /**
+     * The number of committed outermost transactions.
+     */
+    private final long commits;
+
+    /**
+     * The number of rollbacked outermost transactions, including the ones which failed to commit.
+     */
+    private final long rollbacks;
+
+    /**
+     * The number of rollbacked nested transactions.
+     */
+    private final long nestedRollbacks;
+
+    /**
+     * The number of run (or dispatched) end hooks and rollback hooks.
+     */
+    private final long endHooks;
+
+    /**
+     * The histogram of duration of outermost transactions, from begin to commit or rollback.
+     */
+    private final LatencyHistogram.Snapshot durationHistogram;
+
+    /**
+     * The histogram of latency of {@code Connection#commit()}.
+     */
+    private final LatencyHistogram.Snapshot commitHistogram;
+
+    /**
+     * The histogram of time which running (or dispatching) hooks took.
+     */
+    private final LatencyHistogram.Snapshot endHooksHistogram;
+
+    @Getter(AccessLevel.NONE)
+    private final long[] depthCounts;
+
+    TransactionMetricsSnapshot(long begins, long commits, long rollbacks, long nestedRollbacks, long endHooks,
+                               LatencyHistogram.Snapshot durationHistogram,
+                               LatencyHistogram.Snapshot commitHistogram,
+                               LatencyHistogram.Snapshot endHooksHistogram, long[] depthCounts) {
+        this.begins = begins;
+        this.commits = commits;
+        this.rollbacks = rollbacks;
+        this.nestedRollbacks = nestedRollbacks;
+        this.endHooks = endHooks;
+        this.durationHistogram = durationHistogram;
+        this.commitHistogram = commitHistogram;
+        this.endHooksHistogram = endHooksHistogram;
+        this.depthCounts = depthCounts;
+    }
+
+    /**
+     * The number of transactions which were began at the depth.
+     *
+     * @param depth depth of transaction; {@code 1} means the outermost transaction.
+     *              Transactions which are deeper than {@link TransactionMetricsRecorder#MAX_TRACKED_DEPTH}
+     *              are counted at that depth.
+     * @return the number of transactions which were began at the depth.
+     */
+    public long getDepthCount(int depth) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth must be positive");
+        }
+        return depthCounts[Math.min(depth, depthCounts.length - 1)];
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("Begins: ").append(begins)
+                .append(", Commits: ").append(commits)
+                .append(", Rollbacks: ").append(rollbacks)
+                .append(", Nested Rollbacks: ").append(nestedRollbacks)
+                .append(", End Hooks: ").append(endHooks)
+                .append(", Duration p50/p99/max (us): ")
+                .append(durationHistogram.getPercentile(50, TimeUnit.MICROSECONDS)).append('/')
+                .append(durationHistogram.getPercentile(99, TimeUnit.MICROSECONDS)).append('/')
+                .append(durationHistogram.getMax(TimeUnit.MICROSECONDS))
+                .append(", Commit p50/p99/max (us): ")
+                .append(commitHistogram.getPercentile(50, TimeUnit.MICROSECONDS)).append('/')
+                .append(commitHistogram.getPercentile(99, TimeUnit.MICROSECONDS)).append('/')
+                .append(commitHistogram.getMax(TimeUnit.MICROSECONDS)).toString();
+    }
+}
@@ -0,0 +1,99 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import java.sql.Connection;
+
+/**
+ * Represents the options to begin a transaction.
+ *
+ * @author moznion
+ */
+@Getter
+public class TransactionOptions {
+    private static final TransactionOptions DEFAULT = builder().build();
+
+    private final boolean savepoint;
+    private final Boolean readOnly;
+    private final Integer isolationLevel;
+
+    /**
+     * Builder of options to begin a transaction.
+     * <p>
+     * This class provides fluent accessors for each fields. You can specify the
+     * field by method chaining.
+     */
+    @Accessors(fluent = true)
+    @Setter
+    public static class Builder {
+        /**
+         * Takes a savepoint when the transaction is nested.
+         * <p>
+         * If it is enabled, rollback of the nested transaction rollbacks only to the savepoint
+         * and doesn't make the outer transaction fail. It is ignored on the outermost transaction.
+         */
+        private boolean savepoint = false;
+
+        /**
+         * Makes the transaction read-only ({@code true}) or read-write ({@code false}).
+         * <p>
+         * It is applied by {@code Connection#setReadOnly()} on the outermost transaction, and the original
+         * value is restored when the transaction is end. {@code null} (default) doesn't change the connection,
+         * and a nested transaction inherits the outer one. A read-write nested transaction in a read-only
+         * transaction is rejected.
+         */
+        private Boolean readOnly = null;
+
+        /**
+         * Transaction isolation level (e.g. {@code Connection.TRANSACTION_READ_COMMITTED}).
+         * <p>
+         * It is applied by {@code Connection#setTransactionIsolation()} on the outermost transaction, and
+         * the original level is restored when the transaction is end. {@code null} (default) doesn't change
+         * the connection. A nested transaction must not request a level which conflicts with the outer one.
+         */
+        private Integer isolationLevel = null;
+
+        /**
+         * Construct new instance of TransactionOptions based on builder.
+         *
+         * @return new instance of TransactionOptions
+         */
+        public TransactionOptions build() {
+            return new TransactionOptions(this);
+        }
+    }
+
+    /**
+     * Return new builder for this instance.
+     *
+     * @return builder for this instance.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Return the default options.
+     *
+     * @return the default options.
+     */
+    public static TransactionOptions defaults() {
+        return DEFAULT;
+    }
+
+    private TransactionOptions(Builder b) {
+        savepoint = b.savepoint;
+        readOnly = b.readOnly;
+
+        if (b.isolationLevel != null
+                && b.isolationLevel != Connection.TRANSACTION_READ_UNCOMMITTED
+                && b.isolationLevel != Connection.TRANSACTION_READ_COMMITTED
+                && b.isolationLevel != Connection.TRANSACTION_REPEATABLE_READ
+                && b.isolationLevel != Connection.TRANSACTION_SERIALIZABLE) {
+            throw new IllegalArgumentException("isolationLevel is invalid: " + b.isolationLevel);
+        }
+        isolationLevel = b.isolationLevel;
+    }
+}
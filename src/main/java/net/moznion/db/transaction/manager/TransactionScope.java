@@ -1,16 +1,19 @@
 package net.moznion.db.transaction.manager;
 
 import java.sql.SQLException;
-import java.util.List;
 
 /**
  * The handler of a transaction manager which is scope (means try-with-resources statement) based.
+ * <p>
+ * A scope is owned by the thread which constructed it. {@link #close()} on other threads doesn't
+ * rollback the transaction.
  *
  * @author moznion
  */
 public class TransactionScope implements AutoCloseable {
     private boolean isActioned = false;
     private final TransactionManager transactionManager;
+    private final Thread owner;
 
     /**
      * Constructs a handler of a transaction manager with is scope based.
@@ -18,16 +21,24 @@ public class TransactionScope implements AutoCloseable {
      * @throws SQLException
      */
     public TransactionScope(TransactionManager transactionManager) throws SQLException {
+        this(transactionManager, TransactionOptions.defaults());
+    }
+
+    /**
+     * Constructs a handler of a transaction manager with is scope based with options.
+     * <p>
+     * e.g. {@code new TransactionScope(txnManager, TransactionOptions.builder().savepoint(true).build())}
+     * begins a nested transaction which can be rollbacked without making the outer transaction fail.
+     *
+     * @throws SQLException
+     */
+    public TransactionScope(TransactionManager transactionManager, TransactionOptions options) throws SQLException {
         if (transactionManager == null) {
             throw new IllegalArgumentException("transactionManager must not be null");
         }
         this.transactionManager = transactionManager;
-
-        Boolean originalAutoCommitStatus = transactionManager.getOriginalAutoCommitStatus();
-        if (originalAutoCommitStatus == null) {
-            originalAutoCommitStatus = transactionManager.getConnection().getAutoCommit();
-        }
-        transactionManager.txnBegin(originalAutoCommitStatus);
+        owner = Thread.currentThread();
+        transactionManager.txnBegin(options);
     }
 
     /**
@@ -70,20 +81,73 @@ public class TransactionScope implements AutoCloseable {
         transactionManager.txnAddEndHook(r);
     }
 
+    /**
+     * Add a rollback hook for transaction.
+     * <p>
+     * Registered rollback hooks run only when the outermost transaction was rollbacked
+     * (or the nested transaction which has a savepoint was rollbacked to the savepoint).
+     *
+     * @param r a processing for rollback hook
+     */
+    public void addRollbackHook(Runnable r) {
+        transactionManager.txnAddRollbackHook(r);
+    }
+
+    /**
+     * Add a key to the batch hook for transaction.
+     * <p>
+     * The handler of the batch hook runs once with the deduplicated keys only when all of transactions were
+     * succeeded. See {@link BatchHook}.
+     *
+     * @param hook a batch hook
+     * @param key  a key to handle after commit
+     * @param <K>  the type of keys
+     */
+    public <K> void addBatchHook(BatchHook<K> hook, K key) {
+        transactionManager.txnAddBatchHook(hook, key);
+    }
+
+    /**
+     * Executes a query in the transaction, through the query cache if it is enabled.
+     * See {@link TransactionManager#txnQuery(String, ResultSetMapper, Object...)}.
+     *
+     * @param sql        SQL of the query
+     * @param mapper     a mapper of the result set
+     * @param parameters parameters of the query
+     * @param <T>        the type of the result
+     * @return the mapped result.
+     * @throws SQLException
+     */
+    public <T> T query(String sql, ResultSetMapper<T> mapper, Object... parameters) throws SQLException {
+        return transactionManager.txnQuery(sql, mapper, parameters);
+    }
+
+    /**
+     * Whether the current thread is the owner of this scope.
+     *
+     * @return {@code true} if the current thread constructed this scope.
+     */
+    public boolean isOwnedByCurrentThread() {
+        return Thread.currentThread() == owner;
+    }
+
+    /**
+     * Rollbacks the transaction if it has not been committed or rollbacked yet.
+     * <p>
+     * It does nothing when it is called on a thread which is not the owner of this scope.
+     *
+     * @throws SQLException
+     */
     @Override
     public void close() throws SQLException {
-        List<TransactionTraceInfo> activeTransactions = transactionManager.getActiveTransactions();
-        if (activeTransactions.isEmpty()) {
+        if (isActioned || !isOwnedByCurrentThread()) {
             return;
         }
 
-        TransactionTraceInfo currentTransactionTraceInfo = activeTransactions.get(activeTransactions.size() - 1);
-        if (Thread.currentThread().getId() != currentTransactionTraceInfo.getThreadId()) {
+        if (transactionManager.getDepth() == 0) {
             return;
         }
 
-        if (!isActioned) {
-            rollback();
-        }
+        rollback();
     }
 }
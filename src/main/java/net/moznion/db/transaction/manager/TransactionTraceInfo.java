@@ -20,6 +20,11 @@ public class TransactionTraceInfo {
     private final int lineNumber;
     private final long threadId;
 
+    /**
+     * The time when the transaction began, in milliseconds since the epoch ({@code -1} if unknown).
+     */
+    private final long startedAt;
+
     /**
      * Builder of traced information for transaction.
      * <p>
@@ -37,6 +42,7 @@ public class TransactionTraceInfo {
         private String methodName = UNKNOWN_SYMBOL;
         private int lineNumber = UNKNOWN_NUM;
         private long threadId = UNKNOWN_NUM;
+        private long startedAt = UNKNOWN_NUM;
 
         /**
          * Construct new instance of TransactionTraceInfo based on builder.
@@ -78,6 +84,7 @@ public class TransactionTraceInfo {
 
         this.lineNumber = b.lineNumber;
         this.threadId = b.threadId;
+        this.startedAt = b.startedAt;
     }
 
     @Override
@@ -0,0 +1,314 @@
+package net.moznion.db.transaction.manager;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.ref.WeakReference;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The watchdog which reports long-running transactions.
+ * <p>
+ * A watchdog has a single background thread which scans all of watched transaction managers periodically.
+ * When the outermost transaction of a manager has been running longer than a warn threshold, it is reported
+ * with the call site which began the transaction (see {@link TransactionTraceInfo}). Each threshold is reported
+ * at most once for each transaction.
+ * <p>
+ * Optionally, the connection of a transaction which exceeds the abort threshold is aborted by
+ * {@code Connection#abort(Executor)}. Subsequent operations of the transaction will fail. Aborting is atomic with
+ * the end of the transaction, so a connection is never aborted after its transaction has ended.
+ * <p>
+ * Managers are held by weak references, so watching a manager doesn't prevent it from being garbage collected.
+ *
+ * @author moznion
+ */
+@Slf4j
+public class TransactionWatchdog implements AutoCloseable {
+    private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService scanner;
+
+    private final long[] warnThresholdsMillis;
+
+    @Getter
+    private final long abortThresholdMillis;
+
+    private final Consumer<Report> reporter;
+    private final Executor abortExecutor;
+
+    /**
+     * The report of a long-running transaction.
+     */
+    @Getter
+    public static class Report {
+        /**
+         * The manager of the transaction.
+         */
+        private final TransactionManager manager;
+
+        /**
+         * The trace information of the outermost transaction.
+         */
+        private final TransactionTraceInfo traceInfo;
+
+        /**
+         * How long the transaction has been running.
+         */
+        private final long elapsedMillis;
+
+        /**
+         * The threshold which the transaction exceeded.
+         */
+        private final long thresholdMillis;
+
+        /**
+         * Whether the connection of the transaction was aborted.
+         */
+        private final boolean aborted;
+
+        Report(TransactionManager manager, TransactionTraceInfo traceInfo, long elapsedMillis,
+               long thresholdMillis, boolean aborted) {
+            this.manager = manager;
+            this.traceInfo = traceInfo;
+            this.elapsedMillis = elapsedMillis;
+            this.thresholdMillis = thresholdMillis;
+            this.aborted = aborted;
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder()
+                    .append(aborted ? "Aborted a transaction" : "A transaction is running")
+                    .append(" for ").append(elapsedMillis).append(" ms")
+                    .append(" (threshold: ").append(thresholdMillis).append(" ms): ")
+                    .append(traceInfo).toString();
+        }
+    }
+
+    /**
+     * Builder of {@link TransactionWatchdog}.
+     */
+    @Accessors(fluent = true)
+    @Setter
+    public static class Builder {
+        private long[] warnThresholdsMillis = new long[]{30_000};
+
+        /**
+         * The threshold to abort the connection. {@code 0} (default) disables aborting.
+         */
+        private long abortThresholdMillis = 0;
+
+        /**
+         * The interval of scanning. Default value is {@code 1000}.
+         */
+        private long scanIntervalMillis = 1000;
+
+        /**
+         * The receiver of reports. Default reporter logs them as warnings. It is called on the scanning thread.
+         */
+        private Consumer<Report> reporter = report -> log.warn(report.toString());
+
+        /**
+         * The executor which is passed to {@code Connection#abort(Executor)}.
+         * Default executor runs the abort on the scanning thread.
+         */
+        private Executor abortExecutor = Runnable::run;
+
+        /**
+         * Sets thresholds to report long-running transactions. Default threshold is 30 seconds.
+         *
+         * @param warnThresholdsMillis thresholds in milliseconds
+         * @return this builder
+         */
+        public Builder warnThresholdsMillis(long... warnThresholdsMillis) {
+            this.warnThresholdsMillis = warnThresholdsMillis;
+            return this;
+        }
+
+        /**
+         * Construct new instance of TransactionWatchdog, which starts scanning immediately.
+         *
+         * @return new instance of TransactionWatchdog
+         */
+        public TransactionWatchdog build() {
+            return new TransactionWatchdog(this);
+        }
+    }
+
+    /**
+     * Return new builder for this class.
+     *
+     * @return builder for this class.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private TransactionWatchdog(Builder b) {
+        if (b.warnThresholdsMillis == null) {
+            throw new IllegalArgumentException("warnThresholdsMillis must not be null");
+        }
+        if (b.abortThresholdMillis < 0) {
+            throw new IllegalArgumentException("abortThresholdMillis must not be negative");
+        }
+        if (b.scanIntervalMillis <= 0) {
+            throw new IllegalArgumentException("scanIntervalMillis must be positive");
+        }
+        if (b.reporter == null) {
+            throw new IllegalArgumentException("reporter must not be null");
+        }
+        if (b.abortExecutor == null) {
+            throw new IllegalArgumentException("abortExecutor must not be null");
+        }
+
+        warnThresholdsMillis = b.warnThresholdsMillis.clone();
+        for (long threshold : warnThresholdsMillis) {
+            if (threshold <= 0) {
+                throw new IllegalArgumentException("warnThresholdsMillis must be positive");
+            }
+        }
+        Arrays.sort(warnThresholdsMillis);
+
+        abortThresholdMillis = b.abortThresholdMillis;
+        reporter = b.reporter;
+        abortExecutor = b.abortExecutor;
+
+        scanner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "transaction-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scanner.scheduleWithFixedDelay(() -> scan(System.nanoTime()),
+                b.scanIntervalMillis, b.scanIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts watching transactions of the manager.
+     * <p>
+     * Transactions which begin after this call are watched; a transaction which is already active is not.
+     *
+     * @param manager a transaction manager to watch
+     */
+    public void watch(TransactionManager manager) {
+        if (manager == null) {
+            throw new IllegalArgumentException("manager must not be null");
+        }
+        manager.addWatcher();
+        entries.add(new Entry(manager));
+    }
+
+    /**
+     * Stops watching transactions of the manager.
+     *
+     * @param manager a transaction manager to stop watching
+     */
+    public void unwatch(TransactionManager manager) {
+        entries.removeIf(entry -> {
+            if (entry.get() != manager) {
+                return false;
+            }
+            manager.removeWatcher();
+            return true;
+        });
+    }
+
+    /**
+     * Stops scanning.
+     */
+    @Override
+    public void close() {
+        scanner.shutdownNow();
+        for (Entry entry : entries) {
+            TransactionManager manager = entry.get();
+            if (manager != null) {
+                manager.removeWatcher();
+            }
+        }
+        entries.clear();
+    }
+
+    /**
+     * Scans all of watched managers. This must be called by one thread at a time.
+     *
+     * @param now the current value of {@code System.nanoTime()}
+     */
+    void scan(long now) {
+        for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            TransactionManager manager = entry.get();
+            if (manager == null) {
+                iterator.remove();
+                continue;
+            }
+
+            TransactionManager.WatchedTransaction transaction = manager.getWatchedTransaction();
+            if (transaction != entry.transaction) {
+                // another transaction
+                entry.transaction = transaction;
+                entry.reportedThresholds = 0;
+                entry.aborted = false;
+            }
+            if (transaction == null) {
+                continue;
+            }
+
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(now - transaction.beganAt);
+
+            int exceededThresholds = entry.reportedThresholds;
+            while (exceededThresholds < warnThresholdsMillis.length
+                    && elapsedMillis >= warnThresholdsMillis[exceededThresholds]) {
+                exceededThresholds++;
+            }
+            if (exceededThresholds > entry.reportedThresholds) {
+                entry.reportedThresholds = exceededThresholds;
+                report(new Report(manager, transaction.traceInfo, elapsedMillis,
+                        warnThresholdsMillis[exceededThresholds - 1], false));
+            }
+
+            if (abortThresholdMillis > 0 && !entry.aborted && elapsedMillis >= abortThresholdMillis) {
+                if (manager.getPhysicalConnection() == null) {
+                    continue; // the transaction has not borrowed a connection yet
+                }
+                entry.aborted = true;
+                try {
+                    if (!manager.abortOutermostTransaction(transaction, abortExecutor)) {
+                        continue; // it has just finished
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    log.warn("Failed to abort a connection: " + e.toString());
+                    continue;
+                }
+                report(new Report(manager, transaction.traceInfo, elapsedMillis, abortThresholdMillis, true));
+            }
+        }
+    }
+
+    private void report(Report report) {
+        try {
+            reporter.accept(report);
+        } catch (RuntimeException e) {
+            log.warn("Reporter of transaction watchdog failed: " + e.toString());
+        }
+    }
+
+    private static class Entry extends WeakReference<TransactionManager> {
+        // accessed only by the scanning thread
+        private TransactionManager.WatchedTransaction transaction;
+        private int reportedThresholds;
+        private boolean aborted;
+
+        Entry(TransactionManager manager) {
+            super(manager);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test for asynchronous transactions.
+ *
+ * @author moznion
+ */
+public class AsyncTransactionTest {
+    @Test
+    public void commitOnExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "jdbc"));
+        try {
+            StubConnection connection = new StubConnection();
+            TransactionManager txnManager = new TransactionManager(connection);
+
+            CompletableFuture<String> future = txnManager.executeAsync(executor, c -> {
+                assertSame(connection, c);
+                return Thread.currentThread().getName();
+            });
+
+            assertEquals("jdbc", future.get(10, TimeUnit.SECONDS));
+            assertEquals(1, connection.commitCount);
+            assertEquals(0, txnManager.getDepth());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void rollbackOnException() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            StubConnection connection = new StubConnection();
+            TransactionManager txnManager = new TransactionManager(connection);
+            SQLException error = new SQLException("failed");
+
+            CompletableFuture<Object> future = txnManager.executeAsync(executor, c -> {
+                throw error;
+            });
+
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertSame(error, e.getCause());
+            }
+            assertEquals(0, connection.commitCount);
+            assertEquals(1, connection.rollbackCount);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void rollbackWhenCommitFails() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            StubConnection connection = new StubConnection();
+            TransactionManager txnManager = new TransactionManager(connection);
+
+            CompletableFuture<String> future = txnManager.executeAsync(executor, c -> {
+                try {
+                    txnManager.inTransaction(nested -> {
+                        throw new SQLException("failed");
+                    });
+                } catch (SQLException e) {
+                    // ignore
+                }
+                return "ok";
+            });
+
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof AlreadyRollbackedException);
+            }
+            assertEquals(0, connection.commitCount);
+            assertEquals(1, connection.rollbackCount);
+            assertEquals(0, executor.submit(txnManager::getDepth).get(10, TimeUnit.SECONDS).intValue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void captureCallSiteOfSubmitter() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            TransactionManager txnManager = new TransactionManager(new StubConnection());
+            CompletableFuture<TransactionTraceInfo> future = txnManager.executeAsync(executor,
+                    c -> txnManager.getCurrentTransaction().get());
+            TransactionTraceInfo traceInfo = future.get(10, TimeUnit.SECONDS);
+            assertEquals(AsyncTransactionTest.class.getName(), traceInfo.getClassName());
+            assertEquals("captureCallSiteOfSubmitter", traceInfo.getMethodName());
+
+            TransactionContext context = new TransactionContext(StubConnection::new);
+            traceInfo = context.executeAsync(executor, c -> context.getManager().getCurrentTransaction().get())
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals("captureCallSiteOfSubmitter", traceInfo.getMethodName());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void runEndHooksAfterCompletion() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            TransactionManager txnManager = new TransactionManager(new StubConnection());
+            CountDownLatch stageAttached = new CountDownLatch(1);
+            CountDownLatch hookDone = new CountDownLatch(1);
+            AtomicBoolean completed = new AtomicBoolean(false);
+            AtomicBoolean completedBeforeHook = new AtomicBoolean(false);
+
+            CompletableFuture<Integer> future = txnManager.executeAsync(executor, c -> {
+                txnManager.txnAddEndHook(() -> {
+                    completedBeforeHook.set(completed.get());
+                    hookDone.countDown();
+                });
+                try {
+                    stageAttached.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return 1;
+            });
+            future.thenRun(() -> completed.set(true));
+            stageAttached.countDown();
+
+            assertEquals(1, future.get(10, TimeUnit.SECONDS).intValue());
+            assertTrue(hookDone.await(10, TimeUnit.SECONDS));
+            assertTrue(completedBeforeHook.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void runRegisteredEndHooksOncePerTransaction() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            TransactionManager txnManager = new TransactionManager(new StubConnection());
+            AtomicInteger hooks = new AtomicInteger();
+            txnManager.txnAddEndHook(hooks::incrementAndGet);
+
+            for (int i = 0; i < 2; i++) {
+                assertEquals(1, txnManager.executeAsync(executor, c -> 1).get(10, TimeUnit.SECONDS).intValue());
+            }
+            executor.submit(() -> {
+            }).get(10, TimeUnit.SECONDS); // hooks run after the future completes
+            assertEquals(2, hooks.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void rejectedByExecutor() throws InterruptedException {
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        CompletableFuture<Object> future = txnManager.executeAsync(task -> {
+            throw new RejectedExecutionException("full");
+        }, c -> null);
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void managerForEachThreadOfExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<StubConnection> connections = new ArrayList<>();
+            TransactionContext context = new TransactionContext(() -> {
+                StubConnection connection = new StubConnection();
+                synchronized (connections) {
+                    connections.add(connection);
+                }
+                return connection;
+            });
+
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                int n = i;
+                futures.add(context.executeAsync(executor, c -> {
+                    context.getManager().txnAddEndHook(() -> {
+                    });
+                    return n;
+                }));
+            }
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, futures.get(i).get(10, TimeUnit.SECONDS).intValue());
+            }
+
+            int commits = 0;
+            synchronized (connections) {
+                assertTrue(connections.size() <= 4);
+                for (StubConnection connection : connections) {
+                    commits += connection.commitCount;
+                }
+            }
+            assertEquals(100, commits);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
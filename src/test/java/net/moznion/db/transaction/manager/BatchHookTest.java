@@ -0,0 +1,97 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test for batch hooks.
+ *
+ * @author moznion
+ */
+public class BatchHookTest {
+    @Test
+    public void runOncePerHookWithDeduplicatedKeys() throws SQLException {
+        List<String> events = new ArrayList<>();
+        List<Set<Long>> invalidated = new ArrayList<>();
+        BatchHook<Long> invalidation = new BatchHook<>("invalidation", keys -> {
+            events.add("invalidation");
+            invalidated.add(keys);
+        });
+        BatchHook<String> publication = new BatchHook<>("publication", keys -> events.add("publication: " + keys));
+
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            for (long i = 0; i < 500; i++) {
+                txn.addBatchHook(invalidation, i % 3);
+            }
+            txn.addEndHook(() -> events.add("end hook"));
+            try (TransactionScope nested = new TransactionScope(txnManager)) {
+                nested.addBatchHook(publication, "foo");
+                nested.addBatchHook(publication, "foo");
+                nested.addBatchHook(invalidation, 42L);
+                nested.commit();
+            }
+            assertTrue(events.isEmpty());
+            txn.commit();
+        }
+
+        assertEquals(Arrays.asList("end hook", "invalidation", "publication: [foo]"), events);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 42L), new ArrayList<>(invalidated.get(0)));
+
+        // keys are discarded after the hook ran, while the end hook stays registered
+        events.clear();
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txn.commit();
+        }
+        assertEquals(Collections.singletonList("end hook"), events);
+    }
+
+    @Test
+    public void discardOnRollback() throws SQLException {
+        List<Set<Integer>> handled = new ArrayList<>();
+        BatchHook<Integer> hook = new BatchHook<>("hook", handled::add);
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+
+        txnManager.txnBegin();
+        txnManager.txnAddBatchHook(hook, 1);
+        txnManager.txnRollback();
+        assertTrue(handled.isEmpty());
+
+        txnManager.txnBegin();
+        txnManager.txnCommit();
+        assertTrue(handled.isEmpty());
+    }
+
+    @Test
+    public void discardOnRollbackToSavepoint() throws SQLException {
+        List<Set<Integer>> handled = new ArrayList<>();
+        BatchHook<Integer> hook = new BatchHook<>("hook", handled::add);
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+
+        txnManager.txnBegin();
+        txnManager.txnAddBatchHook(hook, 1);
+        txnManager.txnBegin(TransactionOptions.builder().savepoint(true).build());
+        txnManager.txnAddBatchHook(hook, 1); // already added by the outer transaction
+        txnManager.txnAddBatchHook(hook, 2);
+        txnManager.txnRollback();
+        txnManager.txnAddBatchHook(hook, 3);
+        txnManager.txnCommit();
+
+        assertEquals(1, handled.size());
+        assertEquals(Arrays.asList(1, 3), new ArrayList<>(handled.get(0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullHook() {
+        new TransactionManager(new StubConnection()).txnAddBatchHook(null, 1);
+    }
+}
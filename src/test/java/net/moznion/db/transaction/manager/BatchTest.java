@@ -0,0 +1,128 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Test for statements which are executed as batches in transactions.
+ *
+ * @author moznion
+ */
+public class BatchTest {
+    private static final String INSERT_FOO = "INSERT INTO foo (id, var) VALUES (?, ?)";
+    private static final String UPDATE_FOO = "UPDATE foo SET var = ? WHERE id = ?";
+    private static final String DELETE_FOO = "DELETE FROM foo WHERE id = ?";
+
+    @Test
+    public void flushOnCommit() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txnManager.txnAddBatch(INSERT_FOO, 1, "baz");
+            txnManager.txnAddBatch(INSERT_FOO, 2, "quux");
+            txnManager.txnAddBatch(UPDATE_FOO, "qux", 1);
+            assertTrue(connection.executedSql.isEmpty());
+            txn.commit();
+        }
+
+        assertEquals(2, connection.executeBatchCount);
+        assertEquals(Arrays.asList(INSERT_FOO, INSERT_FOO, UPDATE_FOO), connection.executedSql);
+        assertEquals(Arrays.asList(
+                Arrays.<Object>asList(1, "baz"),
+                Arrays.<Object>asList(2, "quux"),
+                Arrays.<Object>asList("qux", 1)
+        ), connection.executedParameters);
+        assertEquals(1, connection.commitCount);
+    }
+
+    @Test
+    public void keepOrderOfInterleavedStatements() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txnManager.txnAddBatch(INSERT_FOO, 1, "baz");
+            txnManager.txnAddBatch(DELETE_FOO, 1);
+            txnManager.txnAddBatch(INSERT_FOO, 1, "qux");
+            txn.commit();
+        }
+
+        assertEquals(3, connection.executeBatchCount);
+        assertEquals(Arrays.asList(INSERT_FOO, DELETE_FOO, INSERT_FOO), connection.executedSql);
+        assertEquals(Arrays.asList(
+                Arrays.<Object>asList(1, "baz"),
+                Arrays.<Object>asList(1),
+                Arrays.<Object>asList(1, "qux")
+        ), connection.executedParameters);
+    }
+
+    @Test
+    public void discardOnRollback() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txnManager.txnAddBatch(INSERT_FOO, 1, "baz");
+            txn.rollback();
+        }
+
+        assertEquals(0, connection.prepareStatementCount);
+        assertTrue(connection.executedSql.isEmpty());
+
+        // buffer doesn't leak into the next transaction
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txn.commit();
+        }
+        assertTrue(connection.executedSql.isEmpty());
+    }
+
+    @Test
+    public void flushOnBatchLimit() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setBatchLimit(2);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txnManager.txnAddBatch(INSERT_FOO, 1, "baz");
+            assertEquals(0, connection.executedSql.size());
+            txnManager.txnAddBatch(INSERT_FOO, 2, "qux");
+            assertEquals(2, connection.executedSql.size());
+            txnManager.txnAddBatch(INSERT_FOO, 3, "quux");
+            txnManager.txnFlushBatch();
+            assertEquals(3, connection.executedSql.size());
+            txn.commit();
+        }
+
+        assertEquals(2, connection.executeBatchCount);
+    }
+
+    @Test
+    public void discardOnRollbackToSavepoint() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txnManager.txnAddBatch(INSERT_FOO, 1, "baz");
+            try (TransactionScope nested = new TransactionScope(txnManager,
+                    TransactionOptions.builder().savepoint(true).build())) {
+                txnManager.txnAddBatch(INSERT_FOO, 2, "qux");
+                nested.rollback();
+            }
+            txn.commit();
+        }
+
+        assertEquals(Arrays.asList(INSERT_FOO), connection.executedSql);
+        assertEquals(Arrays.asList(Arrays.<Object>asList(1, "baz")), connection.executedParameters);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addBatchWithoutTransaction() throws SQLException {
+        new TransactionManager(new StubConnection()).txnAddBatch(INSERT_FOO, 1, "baz");
+    }
+}
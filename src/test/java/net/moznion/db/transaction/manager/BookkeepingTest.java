@@ -0,0 +1,96 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Test for bookkeeping of the stack of transactions.
+ *
+ * @author moznion
+ */
+public class BookkeepingTest {
+    @Test
+    public void beginAndEndDoNotAllocate() throws SQLException {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return; // allocation can't be measured on this JVM
+        }
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        long threadId = Thread.currentThread().getId();
+
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.setCallSiteCapture(CallSiteCapture.off());
+        txnManager.setConnectionStateCacheEnabled(true);
+
+        int operations = 100_000;
+        runTransactions(txnManager, operations); // warm up
+
+        long before = allocationMXBean.getThreadAllocatedBytes(threadId);
+        runTransactions(txnManager, operations);
+        long allocated = allocationMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        // a few KB of slack for the measurement itself; one object per operation would be over 1 MB
+        assertTrue("allocated " + allocated + " bytes", allocated < 64 * 1024);
+    }
+
+    private static void runTransactions(TransactionManager txnManager, int operations) throws SQLException {
+        for (int i = 0; i < operations; i++) {
+            txnManager.txnBegin();
+            txnManager.txnBegin();
+            txnManager.txnCommit();
+            txnManager.txnCommit();
+
+            txnManager.txnBegin();
+            txnManager.txnRollback();
+        }
+    }
+
+    @Test
+    public void traceInfoIsNotChangedByReusedFrame() throws SQLException {
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+
+        txnManager.txnBegin();
+        TransactionTraceInfo first = txnManager.getCurrentTransaction().get();
+        assertSame(first, txnManager.getActiveTransactions().get(0));
+        int firstLineNumber = first.getLineNumber();
+        txnManager.txnCommit();
+
+        txnManager.txnBegin();
+        TransactionTraceInfo second = txnManager.getCurrentTransaction().get();
+        txnManager.txnCommit();
+
+        assertNotSame(first, second);
+        assertEquals(firstLineNumber, first.getLineNumber());
+        assertEquals(firstLineNumber + 6, second.getLineNumber());
+        assertEquals("traceInfoIsNotChangedByReusedFrame", second.getMethodName());
+    }
+
+    @Test
+    public void deepNesting() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        for (int i = 0; i < 20; i++) {
+            txnManager.txnBegin();
+        }
+        List<TransactionTraceInfo> activeTransactions = txnManager.getActiveTransactions();
+        assertEquals(20, activeTransactions.size());
+        for (TransactionTraceInfo traceInfo : activeTransactions) {
+            assertEquals("deepNesting", traceInfo.getMethodName());
+        }
+
+        for (int i = 0; i < 20; i++) {
+            txnManager.txnCommit();
+        }
+        assertEquals(0, txnManager.getActiveTransactions().size());
+        assertEquals(1, connection.commitCount);
+    }
+}
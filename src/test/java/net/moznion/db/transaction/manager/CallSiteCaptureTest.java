@@ -0,0 +1,67 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+
+/**
+ * Test for strategies of capturing call site.
+ *
+ * @author moznion
+ */
+public class CallSiteCaptureTest extends TestBase {
+    @Test
+    public void captureFull() throws SQLException {
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setCallSiteCapture(CallSiteCapture.full());
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            TransactionTraceInfo got = txnManager.getCurrentTransaction().get();
+            assertEquals("net.moznion.db.transaction.manager.CallSiteCaptureTest", got.getClassName());
+            assertEquals("CallSiteCaptureTest.java", got.getFileName());
+            assertEquals("captureFull", got.getMethodName());
+            assertEquals(20, got.getLineNumber());
+            assertEquals(Thread.currentThread().getId(), got.getThreadId());
+            txn.commit();
+        }
+    }
+
+    @Test
+    public void captureOff() throws SQLException {
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setCallSiteCapture(CallSiteCapture.off());
+
+        txnManager.txnBegin();
+        TransactionTraceInfo got = txnManager.getCurrentTransaction().get();
+        assertEquals(TransactionTraceInfo.UNKNOWN_SYMBOL, got.getClassName());
+        assertEquals(TransactionTraceInfo.UNKNOWN_SYMBOL, got.getFileName());
+        assertEquals(TransactionTraceInfo.UNKNOWN_SYMBOL, got.getMethodName());
+        assertEquals(TransactionTraceInfo.UNKNOWN_NUM, got.getLineNumber());
+        assertEquals(Thread.currentThread().getId(), got.getThreadId());
+        txnManager.txnCommit();
+    }
+
+    @Test
+    public void captureSampled() throws SQLException {
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setCallSiteCapture(CallSiteCapture.sampled(1));
+
+        txnManager.txnBegin();
+        TransactionTraceInfo got = txnManager.getCurrentTransaction().get();
+        assertEquals("captureSampled", got.getMethodName());
+        assertEquals(51, got.getLineNumber());
+        txnManager.txnCommit();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSamplingRate() {
+        CallSiteCapture.sampled(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void gaveNullAsCallSiteCapture() {
+        new TransactionManager(connection).setCallSiteCapture(null);
+    }
+}
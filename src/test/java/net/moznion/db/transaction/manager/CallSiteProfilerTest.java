@@ -0,0 +1,137 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for {@link CallSiteProfiler}.
+ *
+ * @author moznion
+ */
+public class CallSiteProfilerTest {
+    @Test
+    public void aggregateByCallSite() throws SQLException {
+        CallSiteProfiler profiler = new CallSiteProfiler();
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.addTransactionListener(profiler);
+
+        for (int i = 0; i < 3; i++) {
+            commitTransaction(txnManager);
+        }
+        rollbackNestedTransaction(txnManager);
+
+        List<CallSiteProfile> profiles = profiler.snapshot();
+        assertEquals(3, profiles.size());
+
+        CallSiteProfile committed = find(profiles, "commitTransaction");
+        assertEquals(3, committed.getBegins());
+        assertEquals(3, committed.getCommits());
+        assertEquals(0, committed.getRollbacks());
+        assertEquals(3, committed.getDurationHistogram().getCount());
+
+        CallSiteProfile outer = find(profiles, "rollbackNestedTransaction");
+        assertEquals(1, outer.getBegins());
+        assertEquals(1, outer.getRollbacks());
+        assertEquals(0, outer.getNestedRollbacks());
+
+        CallSiteProfile nested = find(profiles, "beginNestedTransaction");
+        assertEquals(1, nested.getBegins());
+        assertEquals(1, nested.getNestedRollbacks());
+        assertEquals(0, nested.getDurationHistogram().getCount());
+    }
+
+    private static void commitTransaction(TransactionManager txnManager) throws SQLException {
+        txnManager.txnBegin();
+        txnManager.txnCommit();
+    }
+
+    private static void rollbackNestedTransaction(TransactionManager txnManager) throws SQLException {
+        txnManager.txnBegin();
+        beginNestedTransaction(txnManager);
+        txnManager.txnRollback();
+        txnManager.txnRollback();
+    }
+
+    private static void beginNestedTransaction(TransactionManager txnManager) throws SQLException {
+        txnManager.txnBegin();
+    }
+
+    private static CallSiteProfile find(List<CallSiteProfile> profiles, String methodName) {
+        for (CallSiteProfile profile : profiles) {
+            if (profile.getCallSite() != null && profile.getCallSite().getMethodName().equals(methodName)) {
+                return profile;
+            }
+        }
+        throw new AssertionError("call site is not found: " + methodName);
+    }
+
+    @Test
+    public void topCallSites() {
+        CallSiteProfiler profiler = new CallSiteProfiler();
+        StackTraceElement cheap = new StackTraceElement("Foo", "cheap", "Foo.java", 10);
+        StackTraceElement expensive = new StackTraceElement("Foo", "expensive", "Foo.java", 20);
+
+        for (int i = 0; i < 10; i++) {
+            profiler.onBegin(null, 1, new StackTraceElement("Foo", "cheap", "Foo.java", 10));
+            profiler.onCommit(null, cheap, 0, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        profiler.onBegin(null, 1, expensive);
+        profiler.onRollback(null, expensive, TimeUnit.SECONDS.toNanos(1));
+
+        List<CallSiteProfile> top = profiler.top(1);
+        assertEquals(1, top.size());
+        assertEquals(expensive, top.get(0).getCallSite());
+        assertEquals(1000, top.get(0).getDurationHistogram().getTotal(TimeUnit.MILLISECONDS));
+
+        List<CallSiteProfile> byBegins = profiler.top(5, (a, b) -> Long.compare(b.getBegins(), a.getBegins()));
+        assertEquals(2, byBegins.size());
+        assertEquals(cheap, byBegins.get(0).getCallSite());
+        assertEquals(10, byBegins.get(0).getBegins());
+    }
+
+    @Test
+    public void boundCallSites() {
+        CallSiteProfiler profiler = CallSiteProfiler.builder().maxCallSites(2).build();
+        for (int i = 0; i < 5; i++) {
+            profiler.onBegin(null, 1, new StackTraceElement("Foo", "method" + i, "Foo.java", i));
+        }
+        profiler.onBegin(null, 1, null);
+
+        List<CallSiteProfile> profiles = profiler.snapshot();
+        assertEquals(3, profiles.size());
+        CallSiteProfile unknown = profiler.top(1, (a, b) -> Long.compare(b.getBegins(), a.getBegins())).get(0);
+        assertNull(unknown.getCallSite());
+        assertEquals(4, unknown.getBegins());
+
+        profiler.reset();
+        assertTrue(profiler.snapshot().isEmpty());
+    }
+
+    @Test
+    public void dump() {
+        List<String> dumped = new ArrayList<>();
+        try (CallSiteProfiler profiler = CallSiteProfiler.builder()
+                .dumpTopN(1)
+                .dumper(dumped::add)
+                .build()) {
+            profiler.dump();
+            assertTrue(dumped.isEmpty());
+
+            StackTraceElement callSite = new StackTraceElement("Foo", "bar", "Foo.java", 42);
+            profiler.onBegin(null, 1, callSite);
+            profiler.onCommit(null, callSite, 0, TimeUnit.MILLISECONDS.toNanos(3));
+            profiler.dump();
+
+            assertEquals(1, dumped.size());
+            assertTrue(dumped.get(0).contains("Foo.bar(Foo.java:42): Begins: 1, Commits: 1"));
+        }
+    }
+}
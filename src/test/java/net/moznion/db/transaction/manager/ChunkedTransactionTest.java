@@ -0,0 +1,152 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test for chunked transactions.
+ *
+ * @author moznion
+ */
+public class ChunkedTransactionTest {
+    private static final String INSERT = "INSERT INTO foo (id) VALUES (?)";
+
+    @Test
+    public void commitEveryChunk() throws SQLException {
+        StubConnection stub = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(stub);
+        List<Long> checkpoints = new ArrayList<>();
+        List<ChunkReport> reports = new ArrayList<>();
+
+        try (ChunkedTransaction load = txnManager.txnBeginChunked(ChunkOptions.builder()
+                .maxOperations(3)
+                .checkpointer((connection, position) -> {
+                    assertEquals(1, txnManager.getDepth());
+                    TransactionTraceInfo traceInfo = txnManager.getCurrentTransaction().get();
+                    assertEquals(ChunkedTransactionTest.class.getName(), traceInfo.getClassName());
+                    assertEquals("commitEveryChunk", traceInfo.getMethodName());
+                    checkpoints.add(position);
+                })
+                .reporter(reports::add)
+                .build())) {
+            for (int i = 0; i < 7; i++) {
+                txnManager.txnAddBatch(INSERT, i);
+                load.advance();
+            }
+            assertEquals(2, stub.commitCount);
+            assertEquals(6, load.getPosition());
+            assertEquals(1, load.getPendingOperations());
+            load.commit();
+        }
+
+        assertEquals(3, stub.commitCount);
+        assertEquals(0, stub.rollbackCount);
+        assertEquals(0, txnManager.getDepth());
+        assertEquals(7, stub.executedParameters.size());
+        assertEquals(Arrays.asList(3L, 6L, 7L), checkpoints);
+
+        assertEquals(3, reports.size());
+        assertEquals(1, reports.get(0).getChunk());
+        assertEquals(3, reports.get(0).getOperations());
+        assertEquals(7, reports.get(2).getPosition());
+        assertTrue(reports.get(2).getOperationsPerSecond() > 0);
+        assertTrue(reports.get(2).toString(), reports.get(2).toString().startsWith("Chunk #3: 1 operations in "));
+    }
+
+    @Test
+    public void commitByTime() throws SQLException, InterruptedException {
+        StubConnection stub = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(stub);
+
+        try (ChunkedTransaction load = txnManager.txnBeginChunked(ChunkOptions.builder()
+                .maxOperations(Long.MAX_VALUE)
+                .maxMillis(1)
+                .build())) {
+            load.advance();
+            assertEquals(0, stub.commitCount);
+            Thread.sleep(5);
+            load.advance();
+            assertEquals(1, stub.commitCount);
+            assertEquals(1, load.getChunks());
+            load.commit();
+            assertEquals(1, load.getChunks()); // the last chunk is empty
+        }
+        assertEquals(2, stub.commitCount);
+    }
+
+    @Test
+    public void rollbackOnlyCurrentChunk() throws SQLException {
+        StubConnection stub = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(stub);
+
+        try (ChunkedTransaction load = txnManager.txnBeginChunked(ChunkOptions.builder()
+                .maxOperations(2)
+                .startPosition(10)
+                .build())) {
+            for (int i = 0; i < 3; i++) {
+                load.advance();
+            }
+            assertEquals(12, load.getPosition());
+            // not committed
+        }
+
+        assertEquals(1, stub.commitCount);
+        assertEquals(1, stub.rollbackCount);
+        assertEquals(0, txnManager.getDepth());
+    }
+
+    @Test
+    public void rollbackWithActiveNestedTransaction() throws SQLException {
+        StubConnection stub = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(stub);
+
+        try (ChunkedTransaction load = txnManager.txnBeginChunked(ChunkOptions.builder().build())) {
+            txnManager.txnBegin();
+            load.advance();
+            // the nested transaction is left open
+        }
+
+        assertEquals(0, txnManager.getDepth());
+        assertEquals(0, stub.commitCount);
+        assertEquals(1, stub.rollbackCount);
+        assertTrue(stub.getAutoCommit());
+    }
+
+    @Test
+    public void deferChunkInNestedTransaction() throws SQLException {
+        StubConnection stub = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(stub);
+
+        try (ChunkedTransaction load = txnManager.txnBeginChunked(ChunkOptions.builder().maxOperations(1).build())) {
+            try (TransactionScope txn = new TransactionScope(txnManager)) {
+                load.advance();
+                load.advance();
+                assertEquals(0, stub.commitCount);
+                txn.commit();
+            }
+            load.advance();
+            assertEquals(1, stub.commitCount);
+            assertEquals(3, load.getPosition());
+            load.commit();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void beginInTransaction() throws SQLException {
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.txnBegin();
+        txnManager.txnBeginChunked(ChunkOptions.builder().build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMaxOperations() {
+        ChunkOptions.builder().maxOperations(0).build();
+    }
+}
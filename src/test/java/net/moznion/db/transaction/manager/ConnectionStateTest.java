@@ -0,0 +1,104 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+
+/**
+ * Test for eliding redundant JDBC calls to change the state of a connection.
+ *
+ * @author moznion
+ */
+public class ConnectionStateTest {
+    @Test
+    public void autoCommitModeWithoutCache() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        for (int i = 0; i < 2; i++) {
+            try (TransactionScope txn = new TransactionScope(txnManager)) {
+                try (TransactionScope nested = new TransactionScope(txnManager)) {
+                    txnManager.txnBegin();
+                    txnManager.txnCommit();
+                    nested.commit();
+                }
+                txn.commit();
+            }
+        }
+
+        assertEquals(2, connection.getAutoCommitCount);
+        assertEquals(4, connection.setAutoCommitCount);
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    public void autoCommitModeWithCache() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setConnectionStateCacheEnabled(true);
+
+        for (int i = 0; i < 2; i++) {
+            try (TransactionScope txn = new TransactionScope(txnManager)) {
+                txn.commit();
+            }
+        }
+
+        assertEquals(1, connection.getAutoCommitCount);
+        assertEquals(4, connection.setAutoCommitCount);
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    public void nonAutoCommitModeWithCache() throws SQLException {
+        StubConnection connection = new StubConnection();
+        connection.setAutoCommit(false);
+        connection.resetCounts();
+
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setConnectionStateCacheEnabled(true);
+
+        for (int i = 0; i < 2; i++) {
+            txnManager.txnBegin();
+            txnManager.txnRollback();
+        }
+
+        assertEquals(1, connection.getAutoCommitCount);
+        assertEquals(0, connection.setAutoCommitCount);
+        assertEquals(2, connection.rollbackCount);
+        assertFalse(connection.getAutoCommit());
+    }
+
+    @Test
+    public void invalidateCache() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setConnectionStateCacheEnabled(true);
+
+        txnManager.txnBegin();
+        txnManager.txnCommit();
+
+        connection.setAutoCommit(false);
+        txnManager.invalidateConnectionState();
+
+        txnManager.txnBegin();
+        txnManager.txnCommit();
+        assertFalse(connection.getAutoCommit());
+    }
+
+    @Test
+    public void nestedBeginDoesNotOverwriteOriginalAutoCommitMode() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        txnManager.txnBegin();
+        txnManager.txnBegin();
+        txnManager.txnCommit();
+        txnManager.txnCommit();
+
+        assertTrue(connection.getAutoCommit());
+    }
+}
@@ -0,0 +1,104 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Test for transaction manager which borrows a connection from {@code DataSource}.
+ *
+ * @author moznion
+ */
+public class DataSourceTest {
+    @Test
+    public void holdConnectionOnlyInTransaction() throws SQLException {
+        StubDataSource dataSource = new StubDataSource();
+        TransactionManager txnManager = TransactionManager.fromDataSource(dataSource);
+        assertEquals(0, dataSource.borrowed.size());
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            Connection connection = txnManager.getConnection();
+            assertEquals(1, dataSource.getActiveCount());
+            assertFalse(connection.getAutoCommit());
+
+            try (TransactionScope nested = new TransactionScope(txnManager)) {
+                assertSame(connection, txnManager.getConnection());
+                nested.commit();
+            }
+            assertEquals(1, dataSource.borrowed.size());
+            txn.commit();
+        }
+
+        StubConnection connection = dataSource.borrowed.get(0);
+        assertEquals(0, dataSource.getActiveCount());
+        assertEquals(1, connection.commitCount);
+        assertTrue(connection.getAutoCommit());
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            assertEquals(1, dataSource.getActiveCount());
+        } // rollback
+        assertEquals(2, dataSource.borrowed.size());
+        assertEquals(0, dataSource.getActiveCount());
+        assertEquals(1, dataSource.borrowed.get(1).rollbackCount);
+    }
+
+    @Test
+    public void getConnectionOutsideOfTransaction() throws SQLException {
+        TransactionManager txnManager = TransactionManager.fromDataSource(new StubDataSource());
+        try {
+            txnManager.getConnection();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("There is no active transaction; a connection is borrowed from DataSource only in a transaction",
+                    e.getMessage());
+        }
+    }
+
+    @Test
+    public void returnConnectionWhenBeginFailed() throws SQLException {
+        StubDataSource dataSource = new StubDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                StubConnection connection = new StubConnection() {
+                    @Override
+                    public void setAutoCommit(boolean autoCommit) throws SQLException {
+                        throw new SQLException("broken");
+                    }
+                };
+                borrowed.add(connection);
+                return connection;
+            }
+        };
+        TransactionManager txnManager = TransactionManager.fromDataSource(dataSource);
+
+        try {
+            txnManager.txnBegin();
+            fail();
+        } catch (SQLException e) {
+            assertEquals("broken", e.getMessage());
+        }
+        assertEquals(1, dataSource.borrowed.size());
+        assertEquals(0, dataSource.getActiveCount());
+        assertFalse(txnManager.getCurrentTransaction().isPresent());
+    }
+
+    @Test
+    public void contextWithDataSource() throws SQLException {
+        StubDataSource dataSource = new StubDataSource();
+        TransactionContext context = new TransactionContext(dataSource);
+
+        try (TransactionScope txn = context.begin()) {
+            assertEquals(1, dataSource.getActiveCount());
+            txn.commit();
+        }
+        assertEquals(0, dataSource.getActiveCount());
+        context.release();
+    }
+}
@@ -0,0 +1,162 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for hooks which are dispatched by {@link EndHookDispatcher}.
+ *
+ * @author moznion
+ */
+public class EndHookDispatcherTest {
+    @Test
+    public void runEndHooksOnExecutor() throws SQLException, InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            TransactionManager txnManager = new TransactionManager(new StubConnection());
+            txnManager.setEndHookDispatcher(
+                    new EndHookDispatcher(executor, 16, EndHookDispatcher.OverflowPolicy.CALLER_RUNS));
+
+            List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch latch = new CountDownLatch(2);
+            try (TransactionScope txn = new TransactionScope(txnManager)) {
+                txn.addEndHook(() -> {
+                    threads.add(Thread.currentThread());
+                    latch.countDown();
+                });
+                txn.addEndHook(() -> {
+                    threads.add(Thread.currentThread());
+                    latch.countDown();
+                });
+                txn.commit();
+            }
+
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertNotSame(Thread.currentThread(), threads.get(0));
+            assertNotSame(Thread.currentThread(), threads.get(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void isolateFailedHook() throws SQLException {
+        EndHookDispatcher dispatcher = new EndHookDispatcher(Runnable::run, 16,
+                EndHookDispatcher.OverflowPolicy.CALLER_RUNS);
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.setEndHookDispatcher(dispatcher);
+
+        List<String> got = new ArrayList<>();
+        txnManager.txnBegin();
+        txnManager.txnAddEndHook(() -> got.add("no1"));
+        txnManager.txnAddEndHook(() -> {
+            throw new IllegalStateException("failed");
+        });
+        txnManager.txnAddEndHook(() -> got.add("no3"));
+        txnManager.txnCommit();
+
+        assertEquals(Arrays.asList("no1", "no3"), got);
+        assertEquals(1, dispatcher.getFailedCount());
+    }
+
+    @Test
+    public void overflow() throws SQLException, InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch blocker = new CountDownLatch(1);
+            EndHookDispatcher discarding = new EndHookDispatcher(executor, 1,
+                    EndHookDispatcher.OverflowPolicy.DISCARD);
+            TransactionManager txnManager = new TransactionManager(new StubConnection());
+            txnManager.setEndHookDispatcher(discarding);
+            txnManager.setOneShotEndHooksEnabled(true);
+
+            List<String> got = Collections.synchronizedList(new ArrayList<>());
+            txnManager.txnBegin();
+            txnManager.txnAddEndHook(() -> {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            txnManager.txnCommit();
+            assertEquals(1, discarding.getPendingCount());
+
+            txnManager.txnBegin();
+            txnManager.txnAddEndHook(() -> got.add("discarded"));
+            txnManager.txnCommit();
+            assertEquals(1, discarding.getDiscardedCount());
+
+            EndHookDispatcher callerRuns = new EndHookDispatcher(executor, 1,
+                    EndHookDispatcher.OverflowPolicy.CALLER_RUNS);
+            txnManager.setEndHookDispatcher(callerRuns);
+            txnManager.txnBegin();
+            txnManager.txnAddEndHook(() -> {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            txnManager.txnCommit();
+            txnManager.txnBegin();
+            txnManager.txnAddEndHook(() -> got.add(Thread.currentThread().getName()));
+            txnManager.txnCommit();
+
+            assertEquals(Collections.singletonList(Thread.currentThread().getName()), got);
+            blocker.countDown();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void runRollbackHooks() throws SQLException {
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.setOneShotEndHooksEnabled(true);
+
+        List<String> got = new ArrayList<>();
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txn.addEndHook(() -> got.add("end"));
+            txn.addRollbackHook(() -> got.add("rollback"));
+        }
+        assertEquals(Collections.singletonList("rollback"), got);
+
+        // hooks have been discarded
+        got.clear();
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txn.commit();
+        }
+        assertTrue(got.isEmpty());
+    }
+
+    @Test
+    public void runRollbackHooksOfNestedTransactionWithSavepoint() throws SQLException {
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+
+        List<String> got = new ArrayList<>();
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txn.addRollbackHook(() -> got.add("outer"));
+            try (TransactionScope nested = new TransactionScope(txnManager,
+                    TransactionOptions.builder().savepoint(true).build())) {
+                nested.addRollbackHook(() -> got.add("nested"));
+            }
+            assertEquals(Collections.singletonList("nested"), got);
+            txn.commit();
+        }
+        assertEquals(Collections.singletonList("nested"), got);
+    }
+}
@@ -61,4 +61,54 @@ public class EndHooksTest extends TestBase {
         }
         assertEquals("", stdout.toString());
     }
+
+    @Test
+    public void shouldEndHooksRunOnEveryCommit() throws SQLException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        try (StdoutCapturer ignored = new StdoutCapturer(stdout)) {
+            TransactionManager txnManager = new TransactionManager(connection);
+            txnManager.txnAddEndHook(() -> System.out.println("no1"));
+            txnManager.txnBegin();
+            txnManager.txnCommit();
+            txnManager.txnBegin();
+            txnManager.txnRollback();
+            txnManager.txnBegin();
+            txnManager.txnCommit();
+        }
+        assertEquals("no1\nno1\n", stdout.toString());
+    }
+
+    @Test
+    public void shouldOneShotEndHooksRunOnlyOnce() throws SQLException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        try (StdoutCapturer ignored = new StdoutCapturer(stdout)) {
+            TransactionManager txnManager = new TransactionManager(connection);
+            txnManager.setOneShotEndHooksEnabled(true);
+            txnManager.txnAddEndHook(() -> System.out.println("no1"));
+            txnManager.txnBegin();
+            txnManager.txnCommit();
+            txnManager.txnBegin();
+            txnManager.txnCommit();
+
+            txnManager.txnBegin();
+            txnManager.txnAddEndHook(() -> System.out.println("no2"));
+            txnManager.txnRollback();
+            txnManager.txnBegin();
+            txnManager.txnCommit();
+        }
+        assertEquals("no1\n", stdout.toString());
+    }
+
+    @Test
+    public void shouldRollbackHooksRunWithScope() throws SQLException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        try (StdoutCapturer ignored = new StdoutCapturer(stdout)) {
+            TransactionManager txnManager = new TransactionManager(connection);
+            try (TransactionScope transactionScope = new TransactionScope(txnManager)) {
+                transactionScope.addEndHook(() -> System.out.println("end"));
+                transactionScope.addRollbackHook(() -> System.out.println("rollback"));
+            }
+        }
+        assertEquals("rollback\n", stdout.toString());
+    }
 }
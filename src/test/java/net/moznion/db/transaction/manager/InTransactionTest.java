@@ -0,0 +1,186 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Test for functional transaction API with propagation.
+ *
+ * @author moznion
+ */
+public class InTransactionTest {
+    @Test
+    public void commitOnReturn() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        String result = txnManager.inTransaction(c -> {
+            assertSame(connection, c);
+            assertEquals(1, txnManager.getDepth());
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(1, connection.commitCount);
+        assertEquals(0, connection.rollbackCount);
+        assertEquals(0, txnManager.getDepth());
+    }
+
+    @Test
+    public void rollbackOnException() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try {
+            txnManager.inTransaction(c -> {
+                throw new IllegalStateException("failed");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+
+        assertEquals(0, connection.commitCount);
+        assertEquals(1, connection.rollbackCount);
+        assertEquals(0, txnManager.getDepth());
+    }
+
+    @Test
+    public void rollbackWhenCommitFailsAfterCaughtNestedFailure() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try {
+            txnManager.inTransaction(c -> {
+                try {
+                    txnManager.inTransaction(Propagation.REQUIRED, nested -> {
+                        throw new SQLException("failed");
+                    });
+                } catch (SQLException e) {
+                    // ignore
+                }
+                return "ok";
+            });
+            fail();
+        } catch (AlreadyRollbackedException e) {
+            // expected
+        }
+
+        assertEquals(0, txnManager.getDepth());
+        assertEquals(0, connection.commitCount);
+        assertEquals(1, connection.rollbackCount);
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    public void requiredJoinsCurrentTransaction() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            try {
+                txnManager.inTransaction(Propagation.REQUIRED, c -> {
+                    assertEquals(2, txnManager.getDepth());
+                    throw new SQLException("failed");
+                });
+                fail();
+            } catch (SQLException e) {
+                assertEquals("failed", e.getMessage());
+            }
+            assertEquals(1, txnManager.getDepth());
+
+            try {
+                txn.commit();
+                fail();
+            } catch (AlreadyRollbackedException e) {
+                // the outer transaction fails too
+            }
+        }
+        assertEquals(0, connection.commitCount);
+        assertEquals(1, connection.rollbackCount);
+    }
+
+    @Test
+    public void nestedRollbacksToSavepoint() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        txnManager.inTransaction(outer -> {
+            try {
+                txnManager.inTransaction(Propagation.NESTED, c -> {
+                    throw new SQLException("failed");
+                });
+                fail();
+            } catch (SQLException e) {
+                assertEquals("failed", e.getMessage());
+            }
+            return txnManager.inTransaction(Propagation.NESTED, c -> null);
+        });
+
+        assertEquals(2, connection.setSavepointCount);
+        assertEquals(1, connection.rollbackToSavepointCount);
+        assertEquals(1, connection.commitCount);
+        assertEquals(0, connection.rollbackCount);
+    }
+
+    @Test
+    public void requiresNewUsesSeparateConnection() throws SQLException {
+        StubConnection connection = new StubConnection();
+        StubConnection newConnection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setNewConnectionFactory(() -> newConnection);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            Integer result = txnManager.inTransaction(Propagation.REQUIRES_NEW, c -> {
+                assertSame(newConnection, c);
+                assertEquals(1, txnManager.getDepth());
+                return 42;
+            });
+            assertEquals(42, result.intValue());
+            txn.rollback();
+        }
+
+        assertEquals(1, newConnection.commitCount);
+        assertTrue(newConnection.isClosed());
+        assertEquals(0, connection.commitCount);
+        assertEquals(1, connection.rollbackCount);
+    }
+
+    @Test
+    public void requiresNewBorrowsFromDataSource() throws SQLException {
+        StubDataSource dataSource = new StubDataSource();
+        TransactionManager txnManager = TransactionManager.fromDataSource(dataSource);
+
+        txnManager.inTransaction(outer -> {
+            try {
+                txnManager.inTransaction(Propagation.REQUIRES_NEW, c -> {
+                    assertNotSame(outer, c);
+                    throw new SQLException("failed");
+                });
+                fail();
+            } catch (SQLException e) {
+                assertEquals("failed", e.getMessage());
+            }
+            return null;
+        });
+
+        assertEquals(2, dataSource.borrowed.size());
+        assertEquals(1, dataSource.borrowed.get(0).commitCount);
+        assertEquals(1, dataSource.borrowed.get(1).rollbackCount);
+        assertEquals(0, dataSource.getActiveCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void requiresNewWithoutFactory() throws SQLException {
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.inTransaction(Propagation.REQUIRES_NEW, Connection::getAutoCommit);
+    }
+}
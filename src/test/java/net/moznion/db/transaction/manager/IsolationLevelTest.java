@@ -0,0 +1,115 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Test for transaction isolation level of transactions.
+ *
+ * @author moznion
+ */
+public class IsolationLevelTest {
+    private static final TransactionOptions READ_COMMITTED = TransactionOptions.builder()
+            .isolationLevel(Connection.TRANSACTION_READ_COMMITTED).build();
+    private static final TransactionOptions SERIALIZABLE = TransactionOptions.builder()
+            .isolationLevel(Connection.TRANSACTION_SERIALIZABLE).build();
+
+    @Test
+    public void setAndRestoreIsolationLevel() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try (TransactionScope txn = new TransactionScope(txnManager, READ_COMMITTED)) {
+            assertEquals(Connection.TRANSACTION_READ_COMMITTED, connection.getTransactionIsolation());
+            try (TransactionScope nested = new TransactionScope(txnManager, READ_COMMITTED)) {
+                nested.commit();
+            }
+            txn.commit();
+        }
+        assertEquals(Connection.TRANSACTION_REPEATABLE_READ, connection.getTransactionIsolation());
+        assertEquals(2, connection.setTransactionIsolationCount);
+
+        connection.resetCounts();
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txn.commit();
+        }
+        assertEquals(0, connection.getTransactionIsolationCount);
+        assertEquals(0, connection.setTransactionIsolationCount);
+    }
+
+    @Test
+    public void skipWhenAlreadySet() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setConnectionStateCacheEnabled(true);
+
+        for (int i = 0; i < 3; i++) {
+            try (TransactionScope txn = new TransactionScope(txnManager, TransactionOptions.builder()
+                    .isolationLevel(Connection.TRANSACTION_REPEATABLE_READ).build())) {
+                txn.commit();
+            }
+        }
+        assertEquals(1, connection.getTransactionIsolationCount);
+        assertEquals(0, connection.setTransactionIsolationCount);
+    }
+
+    @Test
+    public void rejectConflictingNestedLevel() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try (TransactionScope txn = new TransactionScope(txnManager, READ_COMMITTED)) {
+            try {
+                new TransactionScope(txnManager, SERIALIZABLE);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("Tried to begin a nested transaction with a different isolation level " +
+                        "from the outer transaction", e.getMessage());
+            }
+            txn.commit();
+        }
+        assertEquals(1, connection.commitCount);
+
+        // the outer transaction doesn't specify a level; it is compared with the level of the connection
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            try (TransactionScope nested = new TransactionScope(txnManager, TransactionOptions.builder()
+                    .isolationLevel(Connection.TRANSACTION_REPEATABLE_READ).build())) {
+                nested.commit();
+            }
+            try {
+                new TransactionScope(txnManager, READ_COMMITTED);
+                fail();
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            txn.commit();
+        }
+    }
+
+    @Test
+    public void applyNestedLevelInLazyMode() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setLazyBeginEnabled(true);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            try (TransactionScope nested = new TransactionScope(txnManager, READ_COMMITTED)) {
+                txnManager.getConnection().prepareStatement("SELECT 1").close();
+                assertEquals(Connection.TRANSACTION_READ_COMMITTED, connection.getTransactionIsolation());
+                nested.commit();
+            }
+            txn.commit();
+        }
+        assertEquals(Connection.TRANSACTION_REPEATABLE_READ, connection.getTransactionIsolation());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLevel() {
+        TransactionOptions.builder().isolationLevel(Connection.TRANSACTION_NONE).build();
+    }
+}
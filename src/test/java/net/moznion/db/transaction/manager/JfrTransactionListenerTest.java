@@ -0,0 +1,101 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test for {@link JfrTransactionListener}.
+ *
+ * @author moznion
+ */
+public class JfrTransactionListenerTest {
+    @Test
+    public void emitEvents() throws SQLException, IOException {
+        JfrTransactionListener listener = new JfrTransactionListener();
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.addTransactionListener(listener);
+
+        List<RecordedEvent> events;
+        Path file = Files.createTempFile("transaction", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("net.moznion.db.transaction.Transaction");
+            recording.enable("net.moznion.db.transaction.Commit");
+            recording.enable("net.moznion.db.transaction.NestedRollback");
+            recording.enable("net.moznion.db.transaction.EndHooks");
+            recording.start();
+
+            txnManager.txnBegin();
+            txnManager.txnBegin(TransactionOptions.builder().savepoint(true).build());
+            txnManager.txnBegin(TransactionOptions.builder().savepoint(true).build());
+            txnManager.txnRollback();
+            txnManager.txnCommit();
+            txnManager.txnAddEndHook(() -> {
+            });
+            txnManager.txnCommit();
+
+            txnManager.txnBegin();
+            txnManager.txnRollback();
+
+            recording.stop();
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        List<RecordedEvent> spans = filter(events, "net.moznion.db.transaction.Transaction");
+        assertEquals(2, spans.size());
+        assertTrue(spans.get(0).getBoolean("committed"));
+        assertEquals(3, spans.get(0).getInt("maxDepth"));
+        assertEquals("emitEvents", spans.get(0).getString("methodName"));
+        assertFalse(spans.get(1).getBoolean("committed"));
+        assertEquals(1, spans.get(1).getInt("maxDepth"));
+
+        assertEquals(1, filter(events, "net.moznion.db.transaction.Commit").size());
+
+        List<RecordedEvent> nestedRollbacks = filter(events, "net.moznion.db.transaction.NestedRollback");
+        assertEquals(1, nestedRollbacks.size());
+        assertEquals(3, nestedRollbacks.get(0).getInt("depth"));
+
+        List<RecordedEvent> endHooks = filter(events, "net.moznion.db.transaction.EndHooks");
+        assertEquals(1, endHooks.size());
+        assertEquals(1, endHooks.get(0).getInt("count"));
+
+        assertEquals(0, listener.getRecordingSpanCount());
+    }
+
+    @Test
+    public void doNothingWithoutRecording() throws SQLException {
+        JfrTransactionListener listener = new JfrTransactionListener();
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.addTransactionListener(listener);
+
+        txnManager.txnBegin();
+        assertEquals(0, listener.getRecordingSpanCount());
+        txnManager.txnCommit();
+    }
+
+    private static List<RecordedEvent> filter(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> filtered = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                filtered.add(event);
+            }
+        }
+        filtered.sort((a, b) -> a.getStartTime().compareTo(b.getStartTime()));
+        return filtered;
+    }
+}
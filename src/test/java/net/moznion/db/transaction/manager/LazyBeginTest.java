@@ -0,0 +1,160 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Test for lazy begin mode of transaction manager.
+ *
+ * @author moznion
+ */
+public class LazyBeginTest {
+    @Test
+    public void untouchedTransactionDoesNotCallJdbc() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setLazyBeginEnabled(true);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            try (TransactionScope nested = new TransactionScope(txnManager,
+                    TransactionOptions.builder().savepoint(true).build())) {
+                assertFalse(txnManager.getConnection().getAutoCommit());
+                nested.rollback();
+            }
+            txn.commit();
+        }
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txn.rollback();
+        }
+
+        assertEquals(0, connection.getAutoCommitCount);
+        assertEquals(0, connection.setAutoCommitCount);
+        assertEquals(0, connection.commitCount);
+        assertEquals(0, connection.rollbackCount);
+        assertEquals(0, connection.setSavepointCount);
+    }
+
+    @Test
+    public void beginOnFirstStatement() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setLazyBeginEnabled(true);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            try (TransactionScope nested = new TransactionScope(txnManager,
+                    TransactionOptions.builder().savepoint(true).build())) {
+                assertEquals(0, connection.setAutoCommitCount);
+
+                Connection lazyConnection = txnManager.getConnection();
+                try (PreparedStatement statement = lazyConnection.prepareStatement("INSERT INTO foo VALUES (1)")) {
+                    statement.executeUpdate();
+                }
+                assertFalse(connection.getAutoCommit());
+                assertEquals(1, connection.setSavepointCount);
+                nested.rollback();
+            }
+            assertEquals(1, connection.rollbackToSavepointCount);
+            txn.commit();
+        }
+
+        assertEquals(1, connection.commitCount);
+        assertTrue(connection.getAutoCommit());
+        assertEquals("INSERT INTO foo VALUES (1)", connection.executedSql.get(0));
+    }
+
+    @Test
+    public void beginOnFlushingBatch() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setLazyBeginEnabled(true);
+
+        txnManager.txnBegin();
+        txnManager.txnAddBatch("INSERT INTO foo VALUES (?)", 1);
+        assertEquals(0, connection.setAutoCommitCount);
+        txnManager.txnCommit();
+
+        assertEquals(1, connection.commitCount);
+        assertEquals(1, connection.executeBatchCount);
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    public void doNotBorrowConnectionForUntouchedTransaction() throws SQLException {
+        StubDataSource dataSource = new StubDataSource();
+        TransactionManager txnManager = TransactionManager.fromDataSource(dataSource);
+        txnManager.setLazyBeginEnabled(true);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txnManager.getConnection();
+            txn.commit();
+        }
+        assertEquals(0, dataSource.borrowed.size());
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txnManager.getConnection().prepareStatement("SELECT 1").close();
+            assertEquals(1, dataSource.getActiveCount());
+            txn.commit();
+        }
+        assertEquals(1, dataSource.borrowed.size());
+        assertEquals(0, dataSource.getActiveCount());
+        assertEquals(1, dataSource.borrowed.get(0).commitCount);
+    }
+
+    @Test
+    public void harmlessCallsDoNotBegin() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setLazyBeginEnabled(true);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            Connection lazyConnection = txnManager.getConnection();
+            assertFalse(lazyConnection.isReadOnly());
+            assertFalse(lazyConnection.isClosed());
+            assertFalse(lazyConnection.getAutoCommit());
+            assertEquals(1, connection.isReadOnlyCount);
+            assertTrue(txnManager.isBeginPending());
+
+            lazyConnection.prepareStatement("SELECT 1").close();
+            assertFalse(txnManager.isBeginPending());
+            txn.commit();
+        }
+        assertEquals(1, connection.commitCount);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txnManager.getConnection().close();
+            assertTrue(txnManager.isBeginPending());
+            txn.rollback();
+        }
+        assertTrue(connection.isClosed());
+        assertEquals(0, connection.rollbackCount);
+    }
+
+    @Test
+    public void closeDoesNotBorrowConnection() throws SQLException {
+        StubDataSource dataSource = new StubDataSource();
+        TransactionManager txnManager = TransactionManager.fromDataSource(dataSource);
+        txnManager.setLazyBeginEnabled(true);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            Connection lazyConnection = txnManager.getConnection();
+            assertFalse(lazyConnection.isClosed());
+            lazyConnection.close();
+            txn.commit();
+        }
+        assertEquals(0, dataSource.borrowed.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void changeModeInTransaction() throws SQLException {
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.txnBegin();
+        txnManager.setLazyBeginEnabled(true);
+    }
+}
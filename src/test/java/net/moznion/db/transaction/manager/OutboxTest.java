@@ -0,0 +1,207 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+/**
+ * Test for transactional outbox, with embedded H2 database.
+ *
+ * @author moznion
+ */
+public class OutboxTest {
+    private JdbcDataSource dataSource;
+    private Outbox outbox;
+
+    @Before
+    public void before() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:outbox_test_" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        execute("CREATE TABLE outbox ("
+                + "id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,"
+                + "topic VARCHAR(255) NOT NULL,"
+                + "payload VARCHAR(1024) NOT NULL,"
+                + "created_at BIGINT NOT NULL"
+                + ")");
+        outbox = Outbox.builder().build();
+    }
+
+    @After
+    public void after() throws SQLException {
+        execute("SHUTDOWN");
+    }
+
+    @Test
+    public void appendInTransaction() throws SQLException {
+        TransactionManager txnManager = TransactionManager.fromDataSource(dataSource);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            outbox.append(txnManager, "user", "{\"id\":1}");
+            outbox.append(txnManager, "user", "{\"id\":2}");
+            assertEquals(0, count());
+            txn.commit();
+        }
+        assertEquals(2, count());
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            outbox.append(txnManager, "user", "{\"id\":3}");
+            txn.rollback();
+        }
+        assertEquals(2, count());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void appendWithoutTransaction() throws SQLException {
+        outbox.append(new TransactionManager(new StubConnection()), "user", "{}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTableName() {
+        Outbox.builder().tableName("outbox; DROP TABLE foo").build();
+    }
+
+    @Test
+    public void relayInBatches() throws Exception {
+        appendCommitted("a", "b", "c", "d", "e");
+
+        List<List<String>> published = new ArrayList<>();
+        try (OutboxRelay relay = OutboxRelay.builder()
+                .outbox(outbox)
+                .dataSource(dataSource)
+                .publisher(events -> {
+                    List<String> topics = new ArrayList<>();
+                    for (OutboxEvent event : events) {
+                        topics.add(event.getTopic());
+                    }
+                    published.add(topics);
+                })
+                .batchSize(2)
+                .pollIntervalMillis(0)
+                .build()) {
+            assertEquals(2, relay.relayOnce());
+            assertEquals(2, relay.relayOnce());
+            assertEquals(1, relay.relayOnce());
+            assertEquals(0, relay.relayOnce());
+        }
+
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d"), Collections.singletonList("e")),
+                published);
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void keepEventsOnPublisherFailure() throws Exception {
+        appendCommitted("a");
+
+        try (OutboxRelay relay = OutboxRelay.builder()
+                .outbox(outbox)
+                .dataSource(dataSource)
+                .publisher(events -> {
+                    throw new IllegalStateException("broker is down");
+                })
+                .pollIntervalMillis(0)
+                .build()) {
+            try {
+                relay.relayOnce();
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("broker is down", e.getMessage());
+            }
+        }
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void restoreAutoCommitOfConnection() throws Exception {
+        appendCommitted("a");
+
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            Connection unclosable = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> "close".equals(method.getName()) ? null : method.invoke(connection, args));
+            DataSource lending = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{DataSource.class},
+                    (proxy, method, args) -> "getConnection".equals(method.getName()) ? unclosable : null);
+
+            try (OutboxRelay relay = OutboxRelay.builder()
+                    .outbox(outbox)
+                    .dataSource(lending)
+                    .publisher(events -> {
+                    })
+                    .pollIntervalMillis(0)
+                    .build()) {
+                assertEquals(1, relay.relayOnce());
+            }
+            assertFalse(connection.getAutoCommit());
+        } finally {
+            connection.close();
+        }
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void relayInBackground() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        try (OutboxRelay relay = OutboxRelay.builder()
+                .outbox(outbox)
+                .dataSource(dataSource)
+                .publisher(events -> events.forEach(event -> latch.countDown()))
+                .batchSize(2)
+                .pollIntervalMillis(10)
+                .build()) {
+            appendCommitted("a", "b", "c");
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private void appendCommitted(String... topics) throws SQLException {
+        TransactionManager txnManager = TransactionManager.fromDataSource(dataSource);
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            for (String topic : topics) {
+                outbox.append(txnManager, topic, "{}");
+            }
+            txn.commit();
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                preparedStatement.execute();
+            }
+        }
+    }
+
+    private int count() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT COUNT(*) FROM outbox")) {
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    resultSet.next();
+                    return resultSet.getInt(1);
+                }
+            }
+        }
+    }
+}
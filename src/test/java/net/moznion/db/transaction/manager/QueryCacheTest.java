@@ -0,0 +1,150 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test for query cache of transaction manager.
+ *
+ * @author moznion
+ */
+public class QueryCacheTest {
+    private static final ResultSetMapper<Integer> COUNT_ROWS = resultSet -> {
+        int rows = 0;
+        while (resultSet.next()) {
+            rows++;
+        }
+        return rows;
+    };
+
+    private static final ResultSetMapper<Object> NOTHING = resultSet -> null;
+
+    private static final String SELECT = "SELECT * FROM foo WHERE id = ?";
+
+    @Test
+    public void readThroughInTransaction() throws SQLException {
+        StubConnection stub = new StubConnection();
+        stub.queryRows = 2;
+        TransactionManager txnManager = new TransactionManager(stub);
+        txnManager.setQueryCacheEnabled(true);
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            assertEquals(2, (int) txn.query(SELECT, COUNT_ROWS, 1));
+            try (TransactionScope nested = new TransactionScope(txnManager)) {
+                stub.queryRows = 3;
+                assertEquals(2, (int) nested.query(SELECT, COUNT_ROWS, 1));
+                assertEquals(3, (int) nested.query(SELECT, COUNT_ROWS, 2));
+                assertNull(nested.query(SELECT, NOTHING, 1));
+                assertNull(nested.query(SELECT, NOTHING, 1));
+                nested.commit();
+            }
+            assertEquals(3, (int) txn.query(SELECT, COUNT_ROWS, 2));
+            txn.commit();
+        }
+        assertEquals(3, stub.executedSql.size());
+
+        // cleared when the transaction is end
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            assertEquals(3, (int) txn.query(SELECT, COUNT_ROWS, 1));
+            txn.commit();
+        }
+        assertEquals(4, stub.executedSql.size());
+
+        // not cached outside of transactions
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1);
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1);
+        assertEquals(6, stub.executedSql.size());
+    }
+
+    @Test
+    public void invalidateOnWrite() throws SQLException {
+        StubConnection stub = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(stub);
+        txnManager.setQueryCacheEnabled(true);
+
+        txnManager.txnBegin();
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1);
+        txnManager.getConnection().prepareStatement("UPDATE foo SET var = 1 WHERE id = 1").executeUpdate();
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1);
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1);
+        assertEquals(3, stub.executedSql.size());
+
+        txnManager.txnAddBatch("INSERT INTO foo (id) VALUES (?)", 2);
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1); // buffered statement has not been written yet
+        txnManager.txnFlushBatch();
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1);
+        assertEquals(Arrays.asList(SELECT, "UPDATE foo SET var = 1 WHERE id = 1", SELECT,
+                "INSERT INTO foo (id) VALUES (?)", SELECT), stub.executedSql);
+
+        // rollback of nested transaction
+        txnManager.txnBegin(TransactionOptions.builder().savepoint(true).build());
+        txnManager.txnRollback();
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1);
+        assertEquals(6, stub.executedSql.size());
+
+        txnManager.invalidateQueryCache();
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1);
+        assertEquals(7, stub.executedSql.size());
+        txnManager.txnCommit();
+    }
+
+    @Test
+    public void publishOnCommit() throws SQLException {
+        List<String> published = new ArrayList<>();
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.setQueryCacheEnabled(true);
+        txnManager.setQueryCachePublisher((sql, parameters, result) -> published.add(sql + parameters + result));
+
+        txnManager.txnBegin();
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1);
+        txnManager.txnRollback();
+        assertTrue(published.isEmpty());
+
+        txnManager.txnBegin();
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1);
+        txnManager.txnCommit();
+        assertEquals(Arrays.asList(SELECT + "[1]0"), published);
+    }
+
+    @Test
+    public void nullParameter() throws SQLException {
+        StubConnection stub = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(stub);
+        txnManager.setQueryCacheEnabled(true);
+
+        txnManager.txnBegin();
+        txnManager.txnQuery(SELECT, COUNT_ROWS, (Object[]) null);
+        txnManager.txnQuery(SELECT, COUNT_ROWS, (Object) null);
+        txnManager.txnCommit();
+        assertEquals(1, stub.executedSql.size());
+        assertEquals(Collections.singletonList(null), stub.executedParameters.get(0));
+    }
+
+    @Test
+    public void disabledByDefault() throws SQLException {
+        StubConnection stub = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(stub);
+
+        txnManager.txnBegin();
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1);
+        txnManager.txnQuery(SELECT, COUNT_ROWS, 1);
+        txnManager.txnCommit();
+        assertEquals(2, stub.executedSql.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void changeModeInTransaction() throws SQLException {
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.txnBegin();
+        txnManager.setQueryCacheEnabled(true);
+    }
+}
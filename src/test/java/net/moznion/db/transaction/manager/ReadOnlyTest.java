@@ -0,0 +1,135 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+
+/**
+ * Test for read-only transactions.
+ *
+ * @author moznion
+ */
+public class ReadOnlyTest {
+    private static final TransactionOptions READ_ONLY = TransactionOptions.builder().readOnly(true).build();
+    private static final TransactionOptions READ_WRITE = TransactionOptions.builder().readOnly(false).build();
+
+    @Test
+    public void setAndRestoreReadOnlyMode() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try (TransactionScope txn = new TransactionScope(txnManager, READ_ONLY)) {
+            assertTrue(connection.isReadOnly());
+            try (TransactionScope nested = new TransactionScope(txnManager)) {
+                nested.commit();
+            }
+            txn.commit();
+        }
+        assertFalse(connection.isReadOnly());
+        assertEquals(2, connection.setReadOnlyCount);
+
+        connection.resetCounts();
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            txn.commit();
+        }
+        assertEquals(0, connection.isReadOnlyCount);
+        assertEquals(0, connection.setReadOnlyCount);
+    }
+
+    @Test
+    public void skipWhenAlreadyReadOnly() throws SQLException {
+        StubConnection connection = new StubConnection();
+        connection.setReadOnly(true);
+        connection.resetCounts();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try (TransactionScope txn = new TransactionScope(txnManager, READ_ONLY)) {
+            txn.commit();
+        }
+        assertTrue(connection.isReadOnly());
+        assertEquals(0, connection.setReadOnlyCount);
+    }
+
+    @Test
+    public void rejectReadWriteInReadOnly() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try (TransactionScope txn = new TransactionScope(txnManager, READ_ONLY)) {
+            try {
+                new TransactionScope(txnManager, READ_WRITE);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("Tried to begin a read-write transaction in a read-only transaction", e.getMessage());
+            }
+            assertEquals(1, txnManager.getActiveTransactions().size());
+
+            // read-only in read-only, and unspecified in read-only are fine
+            try (TransactionScope nested = new TransactionScope(txnManager, READ_ONLY)) {
+                nested.commit();
+            }
+            txn.commit();
+        }
+        assertEquals(1, connection.commitCount);
+
+        // read-only in read-write is fine
+        try (TransactionScope txn = new TransactionScope(txnManager, READ_WRITE)) {
+            try (TransactionScope nested = new TransactionScope(txnManager, READ_ONLY)) {
+                nested.commit();
+            }
+            txn.commit();
+        }
+        assertFalse(connection.isReadOnly());
+    }
+
+    @Test
+    public void routeToReplica() throws SQLException {
+        StubDataSource primary = new StubDataSource();
+        StubDataSource replica = new StubDataSource();
+        TransactionManager txnManager = TransactionManager.fromDataSource(primary);
+        txnManager.setReplicaDataSource(replica);
+
+        try (TransactionScope txn = new TransactionScope(txnManager, READ_ONLY)) {
+            assertTrue(txnManager.getConnection().isReadOnly());
+            txn.commit();
+        }
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            assertFalse(txnManager.getConnection().isReadOnly());
+            txn.commit();
+        }
+
+        assertEquals(1, replica.borrowed.size());
+        assertEquals(1, primary.borrowed.size());
+        assertEquals(0, replica.getActiveCount());
+        assertFalse(replica.borrowed.get(0).isReadOnly());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void replicaWithoutDataSource() {
+        new TransactionManager(new StubConnection()).setReplicaDataSource(new StubDataSource());
+    }
+
+    @Test
+    public void lazyReadOnlyTransaction() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        txnManager.setLazyBeginEnabled(true);
+
+        try (TransactionScope txn = new TransactionScope(txnManager, READ_ONLY)) {
+            txn.commit();
+        }
+        assertEquals(0, connection.setReadOnlyCount);
+
+        try (TransactionScope txn = new TransactionScope(txnManager, READ_ONLY)) {
+            txnManager.getConnection().prepareStatement("SELECT 1").close();
+            assertTrue(connection.isReadOnly());
+            txn.commit();
+        }
+        assertFalse(connection.isReadOnly());
+    }
+}
@@ -0,0 +1,223 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test for executing transactions with retry.
+ *
+ * @author moznion
+ */
+public class RetryTest {
+    private static final SQLException DEADLOCK =
+            new SQLTransactionRollbackException("Deadlock found when trying to get lock", "40001", 1213);
+    private static final SQLException LOCK_WAIT_TIMEOUT =
+            new SQLException("Lock wait timeout exceeded", "HY000", 1205);
+    private static final SQLException SYNTAX_ERROR =
+            new SQLException("You have an error in your SQL syntax", "42000", 1064);
+
+    private final RetryPolicy retryPolicy = RetryPolicy.builder()
+            .maxAttempts(3)
+            .initialBackoffMillis(1)
+            .maxBackoffMillis(2)
+            .build();
+
+    @Test
+    public void retryAndRecover() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        AtomicInteger calls = new AtomicInteger();
+
+        String got = txnManager.execute(() -> {
+            if (calls.incrementAndGet() < 3) {
+                throw DEADLOCK;
+            }
+            return "ok";
+        }, retryPolicy);
+
+        assertEquals("ok", got);
+        assertEquals(3, calls.get());
+        assertEquals(2, connection.rollbackCount);
+        assertEquals(1, connection.commitCount);
+        assertTrue(connection.getAutoCommit());
+        assertTrue(txnManager.getActiveTransactions().isEmpty());
+
+        RetryMetrics metrics = retryPolicy.getMetrics();
+        assertEquals(1, metrics.getExecutions());
+        assertEquals(3, metrics.getAttempts());
+        assertEquals(2, metrics.getRetries());
+        assertEquals(1, metrics.getRecovered());
+        assertEquals(0, metrics.getExhausted());
+        assertEquals(0, metrics.getFatalFailures());
+        assertTrue(metrics.getBackoffTime(TimeUnit.MILLISECONDS) <= 4);
+    }
+
+    @Test
+    public void exhaustAttempts() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        AtomicInteger calls = new AtomicInteger();
+
+        try {
+            txnManager.execute(() -> {
+                calls.incrementAndGet();
+                throw LOCK_WAIT_TIMEOUT;
+            }, retryPolicy);
+            fail();
+        } catch (SQLException e) {
+            assertSame(LOCK_WAIT_TIMEOUT, e);
+        }
+
+        assertEquals(3, calls.get());
+        assertEquals(3, connection.rollbackCount);
+        assertEquals(0, connection.commitCount);
+        assertEquals(1, retryPolicy.getMetrics().getExhausted());
+        assertEquals(2, retryPolicy.getMetrics().getRetries());
+    }
+
+    @Test
+    public void doNotRetryFatalError() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        AtomicInteger calls = new AtomicInteger();
+
+        try {
+            txnManager.execute(() -> {
+                calls.incrementAndGet();
+                throw SYNTAX_ERROR;
+            }, retryPolicy);
+            fail();
+        } catch (SQLException e) {
+            assertSame(SYNTAX_ERROR, e);
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(1, connection.rollbackCount);
+        assertEquals(1, retryPolicy.getMetrics().getFatalFailures());
+        assertEquals(0, retryPolicy.getMetrics().getRetries());
+    }
+
+    @Test
+    public void doNotRetryInNestedTransaction() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+        AtomicInteger calls = new AtomicInteger();
+
+        txnManager.txnBegin();
+        try {
+            txnManager.execute(() -> {
+                calls.incrementAndGet();
+                throw DEADLOCK;
+            }, retryPolicy);
+            fail();
+        } catch (SQLException e) {
+            assertSame(DEADLOCK, e);
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, txnManager.getActiveTransactions().size());
+        txnManager.txnRollback();
+    }
+
+    @Test
+    public void rollbackWhenCommitFailsAfterCaughtNestedFailure() throws SQLException {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        try {
+            txnManager.execute(() -> {
+                try {
+                    txnManager.execute(() -> {
+                        throw SYNTAX_ERROR;
+                    }, retryPolicy);
+                } catch (SQLException e) {
+                    // ignore
+                }
+                return "ok";
+            }, retryPolicy);
+            fail();
+        } catch (AlreadyRollbackedException e) {
+            // expected
+        }
+
+        assertTrue(txnManager.getActiveTransactions().isEmpty());
+        assertEquals(1, connection.rollbackCount);
+        assertEquals(0, connection.commitCount);
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    public void classifyRetryableErrors() {
+        assertTrue(retryPolicy.isRetryable(DEADLOCK));
+        assertTrue(retryPolicy.isRetryable(LOCK_WAIT_TIMEOUT));
+        assertFalse(retryPolicy.isRetryable(SYNTAX_ERROR));
+        assertTrue(retryPolicy.isRetryable(new SQLException("wrapped", "HY000", 0, DEADLOCK)));
+
+        SQLException chained = new SQLException("batch failed", "HY000", 0);
+        chained.setNextException(new SQLException("Deadlock", "40001", 1213));
+        assertTrue(retryPolicy.isRetryable(chained));
+
+        RetryPolicy customPolicy = RetryPolicy.builder()
+                .retryableSqlStates(Collections.singleton("42000"))
+                .retryableVendorCodes(Collections.emptySet())
+                .build();
+        assertTrue(customPolicy.isRetryable(SYNTAX_ERROR));
+        assertFalse(customPolicy.isRetryable(DEADLOCK));
+    }
+
+    @Test(timeout = 10000)
+    public void classifyErrorsWithCycle() {
+        SQLException first = new SQLException("first", "HY000", 0);
+        SQLException second = new SQLException("second", "HY000", 0);
+        first.initCause(second);
+        second.initCause(first);
+        assertFalse(retryPolicy.isRetryable(first));
+
+        SQLException chained = new SQLException("chained", "HY000", 0);
+        SQLException next = new SQLException("next", "HY000", 0);
+        chained.setNextException(next);
+        next.setNextException(chained);
+        assertFalse(retryPolicy.isRetryable(chained));
+
+        next.initCause(DEADLOCK);
+        assertTrue(retryPolicy.isRetryable(chained));
+    }
+
+    @Test
+    public void computeBackoff() {
+        RetryPolicy policy = RetryPolicy.builder()
+                .initialBackoffMillis(10)
+                .maxBackoffMillis(50)
+                .backoffMultiplier(2.0)
+                .jitter(0.0)
+                .build();
+        assertEquals(10, policy.computeBackoffMillis(1));
+        assertEquals(20, policy.computeBackoffMillis(2));
+        assertEquals(40, policy.computeBackoffMillis(3));
+        assertEquals(50, policy.computeBackoffMillis(4));
+
+        RetryPolicy jitteredPolicy = RetryPolicy.builder()
+                .initialBackoffMillis(100)
+                .jitter(0.5)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            long backoff = jitteredPolicy.computeBackoffMillis(1);
+            assertTrue(backoff >= 50 && backoff <= 100);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMaxAttempts() {
+        RetryPolicy.builder().maxAttempts(0).build();
+    }
+}
@@ -0,0 +1,149 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test for nested transactions with savepoint.
+ *
+ * @author moznion
+ */
+public class SavepointTest extends TestBase {
+    private static final TransactionOptions SAVEPOINT = TransactionOptions.builder().savepoint(true).build();
+
+    @Test
+    public void nestedScopeWithRollbackAndCommit() throws SQLException {
+        TransactionManager transactionManager = new TransactionManager(connection);
+
+        try (TransactionScope txn1 = new TransactionScope(transactionManager)) {
+            insert(1, "baz");
+            try (TransactionScope txn2 = new TransactionScope(transactionManager, SAVEPOINT)) {
+                insert(2, "qux");
+                txn2.rollback();
+            }
+            insert(3, "quux");
+            txn1.commit();
+        }
+
+        assertEquals(Arrays.asList(1, 3), listIds());
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    public void nestedScopeWithImplicitRollbackAndCommit() throws SQLException {
+        TransactionManager transactionManager = new TransactionManager(connection);
+        transactionManager.setSavepointEnabled(true);
+
+        try (TransactionScope txn1 = new TransactionScope(transactionManager)) {
+            insert(1, "baz");
+            try (TransactionScope txn2 = new TransactionScope(transactionManager)) {
+                insert(2, "qux");
+            }
+            txn1.commit();
+        }
+
+        assertEquals(Arrays.asList(1), listIds());
+    }
+
+    @Test
+    public void nestedScopeWithCommitAndCommit() throws SQLException {
+        TransactionManager transactionManager = new TransactionManager(connection);
+
+        try (TransactionScope txn1 = new TransactionScope(transactionManager)) {
+            insert(1, "baz");
+            try (TransactionScope txn2 = new TransactionScope(transactionManager, SAVEPOINT)) {
+                insert(2, "qux");
+                txn2.commit();
+            }
+            txn1.commit();
+        }
+
+        assertEquals(Arrays.asList(1, 2), listIds());
+    }
+
+    @Test
+    public void nestedScopeWithCommitAndRollback() throws SQLException {
+        TransactionManager transactionManager = new TransactionManager(connection);
+
+        try (TransactionScope txn1 = new TransactionScope(transactionManager)) {
+            insert(1, "baz");
+            try (TransactionScope txn2 = new TransactionScope(transactionManager, SAVEPOINT)) {
+                insert(2, "qux");
+                txn2.commit();
+            }
+            txn1.rollback();
+        }
+
+        assertTrue(listIds().isEmpty());
+    }
+
+    @Test
+    public void rollbackToSavepointClearsRollbackOfInnerTransaction() throws SQLException {
+        TransactionManager transactionManager = new TransactionManager(connection);
+
+        try (TransactionScope txn1 = new TransactionScope(transactionManager)) {
+            insert(1, "baz");
+            try (TransactionScope txn2 = new TransactionScope(transactionManager, SAVEPOINT)) {
+                try (TransactionScope txn3 = new TransactionScope(transactionManager)) {
+                    insert(2, "qux");
+                    txn3.rollback();
+                }
+                txn2.rollback();
+            }
+            txn1.commit();
+        }
+
+        assertEquals(Arrays.asList(1), listIds());
+    }
+
+    @Test
+    public void discardEndHooksOfRollbackedNestedTransaction() throws SQLException {
+        TransactionManager transactionManager = new TransactionManager(connection);
+        List<String> got = new ArrayList<>();
+
+        try (TransactionScope txn1 = new TransactionScope(transactionManager)) {
+            txn1.addEndHook(() -> got.add("outer"));
+            try (TransactionScope txn2 = new TransactionScope(transactionManager, SAVEPOINT)) {
+                txn2.addEndHook(() -> got.add("rollbacked"));
+                txn2.rollback();
+            }
+            try (TransactionScope txn2 = new TransactionScope(transactionManager, SAVEPOINT)) {
+                txn2.addEndHook(() -> got.add("committed"));
+                txn2.commit();
+            }
+            txn1.commit();
+        }
+
+        assertEquals(2, got.size());
+        assertEquals("outer", got.get(0));
+        assertEquals("committed", got.get(1));
+    }
+
+    private void insert(int id, String var) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO foo (id, var) VALUES (?, ?)")) {
+            preparedStatement.setInt(1, id);
+            preparedStatement.setString(2, var);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    private List<Integer> listIds() throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT id FROM foo ORDER BY id")) {
+            ResultSet rs = preparedStatement.executeQuery();
+            while (rs.next()) {
+                ids.add(rs.getInt("id"));
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,137 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test for statement tracing of transaction manager.
+ *
+ * @author moznion
+ */
+public class StatementTracerTest {
+    @Test
+    public void fingerprint() {
+        assertEquals("SELECT * FROM foo WHERE id = ? AND name = ?",
+                StatementTracer.fingerprint("SELECT *  FROM foo\n WHERE id = 42 AND name = 'it''s'"));
+        assertEquals("SELECT * FROM foo2 WHERE id IN (?+)",
+                StatementTracer.fingerprint("SELECT * FROM foo2 WHERE id IN (1, 2, 3)"));
+        assertEquals("INSERT INTO foo (id, var) VALUES (?+)",
+                StatementTracer.fingerprint("INSERT INTO foo (id, var) VALUES (?, ?)"));
+    }
+
+    @Test
+    public void recordStatementsOnTransaction() throws SQLException {
+        StubConnection stub = new StubConnection();
+        stub.queryRows = 3;
+        TransactionManager txnManager = new TransactionManager(stub);
+        txnManager.setStatementTracer(StatementTracer.builder().build());
+
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            Connection connection = txnManager.getConnection();
+            assertNotSame(stub, connection);
+            assertSame(connection, txnManager.getConnection());
+
+            for (int i = 0; i < 2; i++) {
+                try (PreparedStatement statement = connection.prepareStatement("UPDATE foo SET var = 'x' WHERE id = " + i)) {
+                    statement.executeUpdate();
+                }
+            }
+
+            try (TransactionScope nested = new TransactionScope(txnManager)) {
+                try (PreparedStatement statement = connection.prepareStatement("SELECT * FROM foo WHERE id = ?")) {
+                    assertSame(connection, statement.getConnection());
+                    statement.setInt(1, 1);
+                    ResultSet resultSet = statement.executeQuery();
+                    while (resultSet.next()) {
+                        // fetch all
+                    }
+                }
+                assertEquals(1, txnManager.getCurrentStatements().size());
+                nested.commit();
+            }
+
+            List<StatementStats> statements = txnManager.getCurrentStatements();
+            assertEquals(2, statements.size());
+            assertEquals("UPDATE foo SET var = ? WHERE id = ?", statements.get(0).getFingerprint());
+            assertEquals(2, statements.get(0).getCount());
+            assertEquals(2, statements.get(0).getRows());
+            assertEquals("SELECT * FROM foo WHERE id = ?", statements.get(1).getFingerprint());
+            assertEquals(1, statements.get(1).getCount());
+            assertEquals(3, statements.get(1).getRows());
+
+            txn.commit();
+        }
+        assertTrue(txnManager.getCurrentStatements().isEmpty());
+    }
+
+    @Test
+    public void reportSlowTransaction() throws SQLException {
+        List<String> reports = new ArrayList<>();
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.setStatementTracer(StatementTracer.builder()
+                .slowTransactionThresholdMillis(1)
+                .maxFingerprints(1)
+                .reporter(reports::add)
+                .build());
+
+        txnManager.txnBegin();
+        Connection connection = txnManager.getConnection();
+        connection.prepareStatement("INSERT INTO foo VALUES (1)").executeUpdate();
+        connection.prepareStatement("INSERT INTO bar VALUES (1)").executeUpdate();
+        connection.prepareStatement("INSERT INTO baz VALUES (1)").executeUpdate();
+        sleep(5);
+        txnManager.txnRollback();
+
+        assertEquals(1, reports.size());
+        String report = reports.get(0);
+        assertTrue(report, report.startsWith("Slow transaction took "));
+        assertTrue(report, report.contains("Method Name: reportSlowTransaction"));
+        assertTrue(report, report.contains("INSERT INTO foo VALUES (?): Count: 1"));
+        assertTrue(report, report.contains(StatementLog.OTHERS + ": Count: 2"));
+
+        // fast transaction is not reported
+        txnManager.setStatementTracer(StatementTracer.builder().reporter(reports::add).build());
+        txnManager.txnBegin();
+        txnManager.getConnection().prepareStatement("INSERT INTO foo VALUES (1)").executeUpdate();
+        txnManager.txnCommit();
+        assertEquals(1, reports.size());
+    }
+
+    @Test
+    public void doNotRecordWithoutTracer() throws SQLException {
+        StubConnection stub = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(stub);
+
+        txnManager.txnBegin();
+        assertSame(stub, txnManager.getConnection());
+        txnManager.getConnection().prepareStatement("INSERT INTO foo VALUES (1)").executeUpdate();
+        assertTrue(txnManager.getCurrentStatements().isEmpty());
+        txnManager.txnCommit();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void changeTracerInTransaction() throws SQLException {
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.txnBegin();
+        txnManager.setStatementTracer(StatementTracer.builder().build());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package net.moznion.db.transaction.manager;
+
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+/**
+ * In-process stub of {@link Connection} which doesn't talk to any DB.
+ * <p>
+ * This keeps the state of a connection (auto commit, read only and transaction isolation) and counts
+ * invocations of transaction related methods. Prepared statements record executed SQL and batched parameters
+ * instead of executing them. It is used by tests which don't need a real DB and by benchmarks.
+ *
+ * @author moznion
+ */
+public class StubConnection implements Connection {
+    private boolean autoCommit = true;
+    private boolean readOnly = false;
+    private int transactionIsolation = Connection.TRANSACTION_REPEATABLE_READ;
+    private boolean closed = false;
+    private int savepointSequence = 0;
+
+    public int getAutoCommitCount;
+    public int setAutoCommitCount;
+    public int isReadOnlyCount;
+    public int setReadOnlyCount;
+    public int getTransactionIsolationCount;
+    public int setTransactionIsolationCount;
+    public int commitCount;
+    public int rollbackCount;
+    public int setSavepointCount;
+    public int rollbackToSavepointCount;
+    public int releaseSavepointCount;
+    public int prepareStatementCount;
+    public int executeBatchCount;
+
+    /**
+     * SQL of executed statements; a batch is recorded once for each batched parameters.
+     */
+    public final List<String> executedSql = new ArrayList<>();
+
+    /**
+     * Parameters of executed statements, in the same order as {@link #executedSql}.
+     */
+    public final List<List<Object>> executedParameters = new ArrayList<>();
+
+    /**
+     * The number of rows which a result set of {@code executeQuery()} has.
+     */
+    public int queryRows = 0;
+
+    /**
+     * Resets all of counters.
+     */
+    public void resetCounts() {
+        getAutoCommitCount = 0;
+        setAutoCommitCount = 0;
+        isReadOnlyCount = 0;
+        setReadOnlyCount = 0;
+        getTransactionIsolationCount = 0;
+        setTransactionIsolationCount = 0;
+        commitCount = 0;
+        rollbackCount = 0;
+        setSavepointCount = 0;
+        rollbackToSavepointCount = 0;
+        releaseSavepointCount = 0;
+        prepareStatementCount = 0;
+        executeBatchCount = 0;
+        executedSql.clear();
+        executedParameters.clear();
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        getAutoCommitCount++;
+        return autoCommit;
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        setAutoCommitCount++;
+        this.autoCommit = autoCommit;
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        isReadOnlyCount++;
+        return readOnly;
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        setReadOnlyCount++;
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        getTransactionIsolationCount++;
+        return transactionIsolation;
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        setTransactionIsolationCount++;
+        transactionIsolation = level;
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        commitCount++;
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        rollbackCount++;
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        setSavepointCount++;
+        final int id = ++savepointSequence;
+        return new Savepoint() {
+            @Override
+            public int getSavepointId() throws SQLException {
+                return id;
+            }
+
+            @Override
+            public String getSavepointName() throws SQLException {
+                throw new SQLException("This is an unnamed savepoint");
+            }
+        };
+    }
+
+    @Override
+    public Savepoint setSavepoint(String name) throws SQLException {
+        setSavepointCount++;
+        return new Savepoint() {
+            @Override
+            public int getSavepointId() throws SQLException {
+                throw new SQLException("This is a named savepoint");
+            }
+
+            @Override
+            public String getSavepointName() throws SQLException {
+                return name;
+            }
+        };
+    }
+
+    @Override
+    public void rollback(Savepoint savepoint) throws SQLException {
+        rollbackToSavepointCount++;
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        releaseSavepointCount++;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return closed;
+    }
+
+    @Override
+    public boolean isValid(int timeout) throws SQLException {
+        return !closed;
+    }
+
+    @Override
+    public void abort(Executor executor) throws SQLException {
+        closed = true;
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        prepareStatementCount++;
+
+        TreeMap<Integer, Object> parameters = new TreeMap<>();
+        List<List<Object>> batch = new ArrayList<>();
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                        parameters.put((Integer) args[0], args[1]);
+                        return null;
+                    }
+                    switch (name) {
+                        case "clearParameters":
+                            parameters.clear();
+                            return null;
+                        case "addBatch":
+                            batch.add(new ArrayList<>(parameters.values()));
+                            return null;
+                        case "executeBatch":
+                            executeBatchCount++;
+                            int[] updateCounts = new int[batch.size()];
+                            for (int i = 0; i < batch.size(); i++) {
+                                executedSql.add(sql);
+                                executedParameters.add(batch.get(i));
+                                updateCounts[i] = 1;
+                            }
+                            batch.clear();
+                            return updateCounts;
+                        case "executeUpdate":
+                            executedSql.add(sql);
+                            executedParameters.add(new ArrayList<>(parameters.values()));
+                            return 1;
+                        case "execute":
+                            executedSql.add(sql);
+                            executedParameters.add(new ArrayList<>(parameters.values()));
+                            return false;
+                        case "executeQuery":
+                            executedSql.add(sql);
+                            executedParameters.add(new ArrayList<>(parameters.values()));
+                            return createResultSet(queryRows);
+                        case "getConnection":
+                            return this;
+                        case "close":
+                        case "clearBatch":
+                            batch.clear();
+                            return null;
+                        case "isClosed":
+                            return false;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "StubPreparedStatement: " + sql;
+                        default:
+                            throw new SQLFeatureNotSupportedException(name);
+                    }
+                });
+    }
+
+    private ResultSet createResultSet(int rows) {
+        int[] remaining = new int[]{rows};
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            return remaining[0]-- > 0;
+                        case "close":
+                            return null;
+                        default:
+                            throw new SQLFeatureNotSupportedException(method.getName());
+                    }
+                });
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        return sql;
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        return null;
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return null;
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency)
+            throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public Map<String, Class<?>> getTypeMap() throws SQLException {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+    }
+
+    @Override
+    public void setHoldability(int holdability) throws SQLException {
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+            throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
+                                              int resultSetHoldability) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
+                                         int resultSetHoldability) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public Blob createBlob() throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+    }
+
+    @Override
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
+    }
+
+    @Override
+    public String getClientInfo(String name) throws SQLException {
+        return null;
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        return new Properties();
+    }
+
+    @Override
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void setSchema(String schema) throws SQLException {
+    }
+
+    @Override
+    public String getSchema() throws SQLException {
+        return null;
+    }
+
+    @Override
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+    }
+
+    @Override
+    public int getNetworkTimeout() throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper of " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+}
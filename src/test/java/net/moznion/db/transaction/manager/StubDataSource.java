@@ -0,0 +1,86 @@
+package net.moznion.db.transaction.manager;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * In-process stub of {@link DataSource} which creates {@link StubConnection} for each borrowing.
+ *
+ * @author moznion
+ */
+public class StubDataSource implements DataSource {
+    /**
+     * Connections which were borrowed, in the order of borrowing.
+     */
+    public final List<StubConnection> borrowed = new ArrayList<>();
+
+    /**
+     * The number of connections which are borrowed and not closed yet.
+     *
+     * @return the number of connections in use.
+     */
+    public int getActiveCount() throws SQLException {
+        int active = 0;
+        for (StubConnection connection : borrowed) {
+            if (!connection.isClosed()) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        StubConnection connection = new StubConnection();
+        borrowed.add(connection);
+        return connection;
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper of " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+}
@@ -0,0 +1,139 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Test for {@link TransactionContext} and the owner of {@link TransactionScope}.
+ *
+ * @author moznion
+ */
+public class TransactionContextTest {
+    @Test
+    public void confineManagerInThread() throws Exception {
+        int threads = 64;
+        int iterations = 2000;
+
+        Queue<StubConnection> connections = new ConcurrentLinkedQueue<>();
+        TransactionContext context = new TransactionContext(() -> {
+            StubConnection connection = new StubConnection();
+            connections.add(connection);
+            return connection;
+        }, manager -> {
+            manager.setCallSiteCapture(CallSiteCapture.sampled(100));
+            manager.setOneShotEndHooksEnabled(true);
+        });
+
+        LongAdder endHooks = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    TransactionManager manager = context.getManager();
+                    for (int i = 0; i < iterations; i++) {
+                        try (TransactionScope txn = context.begin()) {
+                            try (TransactionScope nested = context.begin()) {
+                                nested.addEndHook(endHooks::increment);
+                                nested.commit();
+                            }
+                            if (i % 2 == 0) {
+                                txn.commit();
+                            }
+                        }
+                        assertSame(manager, context.getManager());
+                        assertFalse(manager.getCurrentTransaction().isPresent());
+                    }
+                    context.release();
+                    return iterations;
+                }));
+            }
+            start.countDown();
+
+            for (Future<Integer> future : futures) {
+                assertEquals(iterations, (int) future.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads, connections.size());
+        for (StubConnection connection : connections) {
+            assertEquals(iterations / 2, connection.commitCount);
+            assertEquals(iterations / 2, connection.rollbackCount);
+            assertTrue(connection.isClosed());
+        }
+        assertEquals(threads * iterations / 2, endHooks.sum());
+    }
+
+    @Test
+    public void closeOnOtherThreadDoesNotRollback() throws Exception {
+        StubConnection connection = new StubConnection();
+        TransactionManager txnManager = new TransactionManager(connection);
+
+        TransactionScope txn = new TransactionScope(txnManager);
+        assertTrue(txn.isOwnedByCurrentThread());
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                assertFalse(txn.isOwnedByCurrentThread());
+                txn.close();
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals(null, error.get());
+        assertEquals(0, connection.rollbackCount);
+        assertTrue(txnManager.getCurrentTransaction().isPresent());
+
+        txn.close();
+        assertEquals(1, connection.rollbackCount);
+        assertFalse(txnManager.getCurrentTransaction().isPresent());
+    }
+
+    @Test
+    public void release() throws Exception {
+        TransactionContext context = new TransactionContext(StubConnection::new);
+
+        TransactionManager manager = context.getManager();
+        StubConnection connection = (StubConnection) manager.getConnection();
+        try (TransactionScope txn = context.begin()) {
+            try {
+                context.release();
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("Tried to release a transaction manager but a transaction is active", e.getMessage());
+            }
+            txn.commit();
+        }
+
+        context.release();
+        assertTrue(connection.isClosed());
+        assertNotSame(manager, context.getManager());
+    }
+}
@@ -0,0 +1,180 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for {@link TransactionCoordinator}.
+ *
+ * @author moznion
+ */
+public class TransactionCoordinatorTest {
+    @Test
+    public void commitShardsInParallel() throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(3);
+        Map<String, StubConnection> connections = new LinkedHashMap<>();
+        Map<String, TransactionManager> shards = new LinkedHashMap<>();
+        for (String name : Arrays.asList("shard1", "shard2", "shard3")) {
+            StubConnection connection = new StubConnection() {
+                @Override
+                public void commit() throws SQLException {
+                    try {
+                        // all of commits must be in flight at the same time
+                        barrier.await(10, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        throw new SQLException(e);
+                    }
+                    super.commit();
+                }
+            };
+            connections.put(name, connection);
+            shards.put(name, new TransactionManager(connection));
+        }
+
+        List<String> hooks = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try (TransactionCoordinator txn = new TransactionCoordinator(shards, executor)) {
+            txn.getManager("shard1").txnAddEndHook(() -> hooks.add("shard1"));
+            txn.getManager("shard3").txnAddEndHook(() -> hooks.add("shard3"));
+            txn.addEndHook(() -> hooks.add("coordinator"));
+
+            TransactionCoordinator.Result result = txn.commit();
+            assertTrue(result.isAllCommitted());
+            assertEquals(Arrays.asList("shard1", "shard2", "shard3"),
+                    result.getShards(TransactionCoordinator.ShardStatus.COMMITTED));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (StubConnection connection : connections.values()) {
+            assertEquals(1, connection.commitCount);
+            assertTrue(connection.getAutoCommit());
+        }
+        assertEquals(Arrays.asList("shard1", "shard3", "coordinator"), hooks);
+    }
+
+    @Test
+    public void rollbackRemainingShardsOnFailure() throws Exception {
+        StubConnection connection1 = new StubConnection();
+        StubConnection connection2 = new StubConnection() {
+            @Override
+            public void commit() throws SQLException {
+                throw new SQLException("commit failed");
+            }
+        };
+        StubConnection connection3 = new StubConnection();
+
+        Map<String, TransactionManager> shards = new LinkedHashMap<>();
+        shards.put("shard1", new TransactionManager(connection1));
+        shards.put("shard2", new TransactionManager(connection2));
+        shards.put("shard3", new TransactionManager(connection3));
+
+        List<String> hooks = new ArrayList<>();
+        // single thread executor commits shards one by one
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (TransactionCoordinator txn = new TransactionCoordinator(shards, executor)) {
+            for (String name : shards.keySet()) {
+                txn.getManager(name).txnAddEndHook(() -> hooks.add(name));
+            }
+            txn.addEndHook(() -> hooks.add("coordinator"));
+
+            try {
+                txn.commit();
+                fail();
+            } catch (CoordinatedCommitException e) {
+                assertEquals("commit failed", e.getCause().getMessage());
+
+                TransactionCoordinator.Result result = e.getResult();
+                assertFalse(result.isAllCommitted());
+                assertEquals(Collections.singletonList("shard1"),
+                        result.getShards(TransactionCoordinator.ShardStatus.COMMITTED));
+                assertEquals(Collections.singletonList("shard2"),
+                        result.getShards(TransactionCoordinator.ShardStatus.FAILED));
+                assertEquals(Collections.singletonList("shard3"),
+                        result.getShards(TransactionCoordinator.ShardStatus.ROLLED_BACK));
+                assertEquals(Collections.singleton("shard2"), result.getErrors().keySet());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, connection1.commitCount);
+        assertEquals(1, connection2.rollbackCount);
+        assertEquals(0, connection3.commitCount);
+        assertEquals(1, connection3.rollbackCount);
+        assertEquals(Collections.singletonList("shard1"), hooks);
+        for (TransactionManager manager : shards.values()) {
+            assertFalse(manager.getCurrentTransaction().isPresent());
+        }
+    }
+
+    @Test
+    public void rollbackOnClose() throws Exception {
+        StubConnection connection1 = new StubConnection();
+        StubConnection connection2 = new StubConnection();
+        Map<String, TransactionManager> shards = new LinkedHashMap<>();
+        shards.put("shard1", new TransactionManager(connection1));
+        shards.put("shard2", new TransactionManager(connection2));
+
+        try (TransactionCoordinator txn = new TransactionCoordinator(shards, Runnable::run)) {
+            txn.getManager("shard1").txnBegin();
+        }
+
+        assertEquals(1, connection1.rollbackCount);
+        assertEquals(1, connection2.rollbackCount);
+        assertEquals(0, connection1.commitCount + connection2.commitCount);
+    }
+
+    @Test
+    public void runRegisteredEndHooksOfShardOncePerCommit() throws Exception {
+        TransactionManager shard = new TransactionManager(new StubConnection());
+        List<String> hooks = new ArrayList<>();
+        shard.txnAddEndHook(() -> hooks.add("registered"));
+
+        Map<String, TransactionManager> shards = new LinkedHashMap<>();
+        shards.put("shard1", shard);
+        for (int i = 0; i < 2; i++) {
+            try (TransactionCoordinator txn = new TransactionCoordinator(shards, Runnable::run)) {
+                txn.commit();
+            }
+        }
+        assertEquals(Arrays.asList("registered", "registered"), hooks);
+
+        // end hooks stay registered for transactions which are not coordinated
+        shard.txnBegin();
+        shard.txnCommit();
+        assertEquals(3, hooks.size());
+    }
+
+    @Test
+    public void rejectCommitWithNestedTransaction() throws Exception {
+        Map<String, TransactionManager> shards = new LinkedHashMap<>();
+        shards.put("shard1", new TransactionManager(new StubConnection()));
+
+        try (TransactionCoordinator txn = new TransactionCoordinator(shards, Runnable::run)) {
+            txn.getManager("shard1").txnBegin();
+            try {
+                txn.commit();
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("Tried to commit but a shard has a nested transaction", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for {@link TransactionListener} and {@link TransactionMetricsRecorder}.
+ *
+ * @author moznion
+ */
+public class TransactionListenerTest {
+    @Test
+    public void notifyEventsToListener() throws SQLException {
+        List<String> events = new ArrayList<>();
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.addTransactionListener(new TransactionListener() {
+            @Override
+            public void onBegin(TransactionManager manager, int depth, StackTraceElement callSite) {
+                events.add("begin:" + depth + ":" + callSite.getMethodName());
+            }
+
+            @Override
+            public void onCommit(TransactionManager manager, StackTraceElement callSite, long commitNanos,
+                                 long durationNanos) {
+                assertTrue(commitNanos <= durationNanos);
+                events.add("commit:" + callSite.getMethodName());
+            }
+
+            @Override
+            public void onRollback(TransactionManager manager, StackTraceElement callSite, long durationNanos) {
+                events.add("rollback");
+            }
+
+            @Override
+            public void onNestedRollback(TransactionManager manager, StackTraceElement callSite, int depth) {
+                events.add("nestedRollback:" + depth);
+            }
+
+            @Override
+            public void onEndHooks(TransactionManager manager, int count, long elapsedNanos) {
+                events.add("endHooks:" + count);
+            }
+        });
+
+        txnManager.txnBegin();
+        txnManager.txnBegin(TransactionOptions.builder().savepoint(true).build());
+        txnManager.txnRollback();
+        txnManager.txnAddEndHook(() -> {
+        });
+        txnManager.txnCommit();
+
+        txnManager.txnBegin();
+        txnManager.txnRollback();
+
+        List<String> expected = new ArrayList<>();
+        expected.add("begin:1:notifyEventsToListener");
+        expected.add("begin:2:notifyEventsToListener");
+        expected.add("nestedRollback:2");
+        expected.add("commit:notifyEventsToListener");
+        expected.add("endHooks:1");
+        expected.add("begin:1:notifyEventsToListener");
+        expected.add("rollback");
+        assertEquals(expected, events);
+    }
+
+    @Test
+    public void recordMetrics() throws SQLException {
+        TransactionMetricsRecorder recorder = new TransactionMetricsRecorder();
+        TransactionManager txnManager = new TransactionManager(new StubConnection());
+        txnManager.addTransactionListener(recorder);
+        txnManager.setOneShotEndHooksEnabled(true);
+
+        for (int i = 0; i < 10; i++) {
+            try (TransactionScope txn = new TransactionScope(txnManager)) {
+                try (TransactionScope nestedTxn = new TransactionScope(txnManager)) {
+                    nestedTxn.addEndHook(() -> {
+                    });
+                    nestedTxn.commit();
+                }
+                txn.commit();
+            }
+        }
+        try (TransactionScope txn = new TransactionScope(txnManager)) {
+            try (TransactionScope nestedTxn = new TransactionScope(txnManager)) {
+                nestedTxn.rollback();
+            }
+            txn.rollback();
+        }
+
+        TransactionMetricsSnapshot snapshot = recorder.snapshot();
+        assertEquals(22, snapshot.getBegins());
+        assertEquals(10, snapshot.getCommits());
+        assertEquals(1, snapshot.getRollbacks());
+        assertEquals(1, snapshot.getNestedRollbacks());
+        assertEquals(10, snapshot.getEndHooks());
+        assertEquals(11, snapshot.getDepthCount(1));
+        assertEquals(11, snapshot.getDepthCount(2));
+        assertEquals(0, snapshot.getDepthCount(3));
+        assertEquals(11, snapshot.getDurationHistogram().getCount());
+        assertEquals(10, snapshot.getCommitHistogram().getCount());
+        assertEquals(10, snapshot.getEndHooksHistogram().getCount());
+
+        TransactionMetricsRecorder unused = new TransactionMetricsRecorder();
+        txnManager.removeTransactionListener(recorder);
+        txnManager.txnBegin();
+        txnManager.txnCommit();
+        assertEquals(22, recorder.snapshot().getBegins());
+        assertEquals(0, unused.snapshot().getBegins());
+    }
+
+    @Test
+    public void estimatePercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(100, snapshot.getMax(TimeUnit.MICROSECONDS));
+        assertEquals(50.5, snapshot.getMean(TimeUnit.MICROSECONDS), 0.001);
+
+        // estimation is never lower than the actual value and never exceeds twice of it
+        long p50 = snapshot.getPercentile(50, TimeUnit.NANOSECONDS);
+        assertTrue(p50 >= 50_000 && p50 < 100_000);
+        long p99 = snapshot.getPercentile(99, TimeUnit.NANOSECONDS);
+        assertTrue(p99 >= 99_000 && p99 <= 100_000);
+        assertEquals(0, new LatencyHistogram().snapshot().getPercentile(99, TimeUnit.NANOSECONDS));
+    }
+}
@@ -0,0 +1,200 @@
+package net.moznion.db.transaction.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test for {@link TransactionWatchdog}.
+ *
+ * @author moznion
+ */
+public class TransactionWatchdogTest {
+    @Test
+    public void reportEachThresholdOnce() throws SQLException {
+        List<TransactionWatchdog.Report> reports = new ArrayList<>();
+        try (TransactionWatchdog watchdog = TransactionWatchdog.builder()
+                .warnThresholdsMillis(1000, 100)
+                .scanIntervalMillis(TimeUnit.HOURS.toMillis(1))
+                .reporter(reports::add)
+                .build()) {
+            TransactionManager txnManager = new TransactionManager(new StubConnection());
+            watchdog.watch(txnManager);
+
+            txnManager.txnBegin();
+            txnManager.txnBegin();
+            long beganAt = txnManager.getWatchedTransaction().beganAt;
+
+            watchdog.scan(beganAt + TimeUnit.MILLISECONDS.toNanos(50));
+            assertTrue(reports.isEmpty());
+
+            watchdog.scan(beganAt + TimeUnit.MILLISECONDS.toNanos(150));
+            watchdog.scan(beganAt + TimeUnit.MILLISECONDS.toNanos(200));
+            assertEquals(1, reports.size());
+            assertEquals(100, reports.get(0).getThresholdMillis());
+            assertEquals(150, reports.get(0).getElapsedMillis());
+            assertEquals("reportEachThresholdOnce", reports.get(0).getTraceInfo().getMethodName());
+            assertTrue(reports.get(0).getTraceInfo().getStartedAt() > 0);
+            assertFalse(reports.get(0).isAborted());
+
+            watchdog.scan(beganAt + TimeUnit.MILLISECONDS.toNanos(1500));
+            assertEquals(2, reports.size());
+            assertEquals(1000, reports.get(1).getThresholdMillis());
+
+            txnManager.txnCommit();
+            txnManager.txnCommit();
+            watchdog.scan(beganAt + TimeUnit.MILLISECONDS.toNanos(3000));
+            assertEquals(2, reports.size());
+
+            // next transaction is reported again
+            txnManager.txnBegin();
+            watchdog.scan(txnManager.getWatchedTransaction().beganAt + TimeUnit.MILLISECONDS.toNanos(150));
+            assertEquals(3, reports.size());
+            txnManager.txnRollback();
+        }
+    }
+
+    @Test
+    public void abortConnection() throws SQLException, InterruptedException {
+        BlockingQueue<TransactionWatchdog.Report> reports = new LinkedBlockingQueue<>();
+        try (TransactionWatchdog watchdog = TransactionWatchdog.builder()
+                .warnThresholdsMillis(10)
+                .abortThresholdMillis(50)
+                .scanIntervalMillis(5)
+                .reporter(reports::add)
+                .build()) {
+            StubConnection connection = new StubConnection();
+            TransactionManager txnManager = new TransactionManager(connection);
+            watchdog.watch(txnManager);
+
+            txnManager.txnBegin();
+
+            TransactionWatchdog.Report warned = reports.poll(10, TimeUnit.SECONDS);
+            assertNotNull(warned);
+            assertFalse(warned.isAborted());
+
+            TransactionWatchdog.Report aborted = reports.poll(10, TimeUnit.SECONDS);
+            assertNotNull(aborted);
+            assertTrue(aborted.isAborted());
+            assertTrue(connection.isClosed());
+
+            txnManager.txnRollback();
+            assertFalse(txnManager.getCurrentTransaction().isPresent());
+        }
+    }
+
+    @Test
+    public void endTransactionConcurrentlyWithAbort() throws SQLException, InterruptedException {
+        CountDownLatch aborting = new CountDownLatch(1);
+        CountDownLatch abortBlocker = new CountDownLatch(1);
+        StubConnection connection = new StubConnection() {
+            @Override
+            public void abort(Executor executor) throws SQLException {
+                aborting.countDown();
+                try {
+                    abortBlocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.abort(executor);
+            }
+        };
+
+        List<TransactionWatchdog.Report> reports = new ArrayList<>();
+        try (TransactionWatchdog watchdog = TransactionWatchdog.builder()
+                .warnThresholdsMillis(10)
+                .abortThresholdMillis(50)
+                .scanIntervalMillis(TimeUnit.HOURS.toMillis(1))
+                .reporter(reports::add)
+                .build()) {
+            TransactionManager txnManager = new TransactionManager(connection);
+            watchdog.watch(txnManager);
+
+            txnManager.txnBegin();
+            long beganAt = txnManager.getWatchedTransaction().beganAt;
+            Thread scanner = new Thread(() -> watchdog.scan(beganAt + TimeUnit.SECONDS.toNanos(1)));
+            scanner.start();
+            assertTrue(aborting.await(10, TimeUnit.SECONDS));
+
+            // the transaction cannot end while its connection is being aborted
+            AtomicReference<Throwable> ended = new AtomicReference<>();
+            CountDownLatch ending = new CountDownLatch(1);
+            Thread committer = new Thread(() -> {
+                try {
+                    txnManager.txnCommit();
+                } catch (SQLException | RuntimeException e) {
+                    ended.set(e);
+                }
+                ending.countDown();
+            });
+            committer.start();
+            assertFalse(ending.await(100, TimeUnit.MILLISECONDS));
+            assertNotNull(txnManager.getWatchedTransaction());
+
+            abortBlocker.countDown();
+            scanner.join();
+            committer.join();
+            assertNull(ended.get());
+            assertNull(txnManager.getWatchedTransaction());
+            assertTrue(connection.isClosed());
+            assertEquals(2, reports.size());
+            assertTrue(reports.get(1).isAborted());
+        }
+    }
+
+    @Test
+    public void notAbortEndedTransaction() throws SQLException {
+        List<TransactionWatchdog.Report> reports = new ArrayList<>();
+        try (TransactionWatchdog watchdog = TransactionWatchdog.builder()
+                .warnThresholdsMillis(10)
+                .abortThresholdMillis(50)
+                .scanIntervalMillis(TimeUnit.HOURS.toMillis(1))
+                .reporter(reports::add)
+                .build()) {
+            StubConnection connection = new StubConnection();
+            TransactionManager txnManager = new TransactionManager(connection);
+            watchdog.watch(txnManager);
+
+            txnManager.txnBegin();
+            TransactionManager.WatchedTransaction transaction = txnManager.getWatchedTransaction();
+            assertNotNull(transaction);
+            txnManager.txnCommit();
+            assertFalse(txnManager.abortOutermostTransaction(transaction, Runnable::run));
+            assertFalse(connection.isClosed());
+        }
+    }
+
+    @Test
+    public void unwatch() throws SQLException {
+        List<TransactionWatchdog.Report> reports = new ArrayList<>();
+        try (TransactionWatchdog watchdog = TransactionWatchdog.builder()
+                .warnThresholdsMillis(100)
+                .scanIntervalMillis(TimeUnit.HOURS.toMillis(1))
+                .reporter(reports::add)
+                .build()) {
+            TransactionManager txnManager = new TransactionManager(new StubConnection());
+            watchdog.watch(txnManager);
+            watchdog.unwatch(txnManager);
+
+            txnManager.txnBegin();
+            assertNull(txnManager.getWatchedTransaction());
+            watchdog.scan(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+            assertTrue(reports.isEmpty());
+            txnManager.txnRollback();
+        }
+    }
+}